@@ -1,6 +1,17 @@
+-- Builds the current schema from scratch. Existing databases are upgraded by SchemaMigrator instead;
+-- keep this file in step with the migrations under src/main/resources/db.
+DROP TABLE IF EXISTS SchemaVersion;
+DROP TABLE IF EXISTS EventChangeHorizon;
+DROP TABLE IF EXISTS EventChanges;
+DROP TABLE IF EXISTS Waitlist;
 DROP TABLE IF EXISTS JoinedEvents;
 DROP TABLE IF EXISTS Events;
+DROP FUNCTION IF EXISTS LogEventChange();
+DROP FUNCTION IF EXISTS SetEventState();
+DROP FUNCTION IF EXISTS EventState(integer, integer, integer);
 DROP TABLE IF EXISTS Users;
+DROP SEQUENCE IF EXISTS EventIDs;
+DROP SEQUENCE IF EXISTS UserIDs;
 
 CREATE TABLE Users (
 	ID integer PRIMARY KEY,
@@ -18,14 +29,56 @@ CREATE TABLE Events(
 	Cost numeric, 
 	Threshold integer,
 	Capacity integer,
-	Category Varchar(20)
+	Category Varchar(20),
+	-- Kept equal to the number of JoinedEvents rows for this event by the server;
+	-- GET admin/reconcile repairs any drift.
+	Participants integer NOT NULL DEFAULT 0,
+	-- pending, confirmed or full, kept by the EventStateSet trigger as Participants changes.
+	State Varchar(10) NOT NULL DEFAULT 'pending'
 );
 
+-- An event without a threshold is confirmed once anyone joins it. Event.stateOf must agree with EventState.
+CREATE FUNCTION EventState(participants integer, threshold integer, capacity integer)
+	RETURNS Varchar AS $$
+	SELECT CASE
+		WHEN COALESCE(capacity, 0) > 0 AND participants >= capacity THEN 'full'
+		WHEN participants >= GREATEST(COALESCE(threshold, 0), 1) THEN 'confirmed'
+		ELSE 'pending'
+	END
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE FUNCTION SetEventState() RETURNS trigger AS $$
+BEGIN
+	NEW.State := EventState(NEW.Participants, NEW.Threshold, NEW.Capacity);
+	RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER EventStateSet BEFORE INSERT OR UPDATE OF Participants, Threshold, Capacity ON Events
+	FOR EACH ROW EXECUTE PROCEDURE SetEventState();
+
 CREATE TABLE JoinedEvents(
 	EventID integer REFERENCES Events(ID) ON DELETE CASCADE,
-	UserId integer REFERENCES Users(ID) ON DELETE CASCADE
+	UserId integer REFERENCES Users(ID) ON DELETE CASCADE,
+	-- A user joins an event at most once; joinEvent relies on this key.
+	PRIMARY KEY (EventID, UserID)
 );
 
+-- Users waiting for a seat at a full event. UNJOIN_EVENT enrolls them in Seq order as seats free up.
+CREATE TABLE Waitlist(
+	EventID integer REFERENCES Events(ID) ON DELETE CASCADE,
+	UserID integer REFERENCES Users(ID) ON DELETE CASCADE,
+	Seq bigserial NOT NULL,
+	PRIMARY KEY (EventID, UserID)
+);
+
+CREATE INDEX EventsByTime ON Events (Time, ID);
+CREATE INDEX EventsByUser ON Events (UserID);
+CREATE INDEX EventsByCategory ON Events (Category, Time, ID);
+CREATE INDEX EventsByState ON Events (State, Time, ID);
+CREATE INDEX JoinedEventsByUser ON JoinedEvents (UserID, EventID);
+CREATE INDEX WaitlistByEvent ON Waitlist (EventID, Seq);
+
 INSERT INTO Users VALUES (1, 'TestUser', 'TestPass');
 
 INSERT INTO Events VALUES(1,1,'Example Event', 'Example Event Description',
@@ -33,3 +86,66 @@ INSERT INTO Events VALUES(1,1,'Example Event', 'Example Event Description',
 	0.00, 1, 10, 'ExampleCategory');
 
 INSERT INTO JoinedEvents VALUES (1,1);
+
+UPDATE Events SET Participants = (SELECT COUNT(*) FROM JoinedEvents WHERE EventID = Events.ID);
+
+-- New IDs are reserved in blocks of 50 (IdAllocator.BLOCK_SIZE); start after the rows above.
+CREATE SEQUENCE EventIDs INCREMENT BY 50;
+CREATE SEQUENCE UserIDs INCREMENT BY 50;
+SELECT setval('EventIDs', (SELECT COALESCE(MAX(ID), 0) + 1 FROM Events), false);
+SELECT setval('UserIDs', (SELECT COALESCE(MAX(ID), 0) + 1 FROM Users), false);
+
+-- Every committed change to an event, for GET events/changes. TxID orders changes by the
+-- transaction that made them, so readers can tell when no earlier change can still commit.
+CREATE TABLE EventChanges (
+	Seq bigserial PRIMARY KEY,
+	TxID bigint NOT NULL DEFAULT txid_current(),
+	EventID integer NOT NULL,
+	-- I(nsert), U(pdate), C(ount change only) or D(elete).
+	Kind char(1) NOT NULL,
+	ChangedAt timestamp NOT NULL DEFAULT now()
+);
+CREATE INDEX EventChangesByTx ON EventChanges (TxID);
+CREATE INDEX EventChangesByEvent ON EventChanges (EventID, Seq);
+
+-- Changes before this transaction ID may have been compacted away.
+CREATE TABLE EventChangeHorizon (
+	ID integer PRIMARY KEY CHECK (ID = 1),
+	TxID bigint NOT NULL
+);
+INSERT INTO EventChangeHorizon VALUES (1, txid_current());
+
+CREATE FUNCTION LogEventChange() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO EventChanges (EventID, Kind) VALUES (NEW.ID, 'I');
+	ELSIF TG_OP = 'DELETE' THEN
+		INSERT INTO EventChanges (EventID, Kind) VALUES (OLD.ID, 'D');
+	ELSIF NEW IS DISTINCT FROM OLD THEN
+		INSERT INTO EventChanges (EventID, Kind) VALUES (NEW.ID,
+			CASE WHEN to_jsonb(NEW) - 'participants' - 'state' = to_jsonb(OLD) - 'participants' - 'state'
+				THEN 'C' ELSE 'U' END);
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER EventsChanged AFTER INSERT OR UPDATE OR DELETE ON Events
+	FOR EACH ROW EXECUTE PROCEDURE LogEventChange();
+
+-- Every migration up to this schema counts as applied.
+CREATE TABLE SchemaVersion (
+	Version integer PRIMARY KEY,
+	Name Varchar(100) NOT NULL,
+	AppliedAt timestamp NOT NULL DEFAULT now()
+);
+INSERT INTO SchemaVersion (Version, Name) VALUES
+	(1, 'V1__id_sequences.sql'),
+	(2, 'V2__joined_events_key.sql'),
+	(3, 'V3__participant_counts.sql'),
+	(4, 'V4__query_indexes.sql'),
+	(5, 'V5__category_index.sql'),
+	(6, 'V6__event_changes.sql'),
+	(7, 'V7__waitlist.sql'),
+	(8, 'V8__event_state.sql'),
+	(9, 'V9__unjoined_events_pending.sql');
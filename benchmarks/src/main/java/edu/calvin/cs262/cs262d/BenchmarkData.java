@@ -0,0 +1,106 @@
+package edu.calvin.cs262.cs262d;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * This class builds the synthetic events, rows and tokens that the benchmarks run on.
+ * Event i looks like the events DatabaseBenchmark loads, so in-memory and database
+ * benchmarks work on the same shape of data.
+ */
+class BenchmarkData {
+
+    // 2019-01-01 00:00:00 UTC; event i starts i hours later.
+    private static final long FIRST_EVENT_MILLIS = 1546300800000L;
+    private static final long HOUR_MILLIS = 3600 * 1000;
+
+    private static final String[] COLUMN_NAMES = {
+            "ID", "UserID", "Title", "Description", "Time", "Location",
+            "Cost", "Threshold", "Capacity", "Category", "Participants"
+    };
+    private static final int[] COLUMN_TYPES = {
+            Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR,
+            Types.NUMERIC, Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.INTEGER
+    };
+
+    private BenchmarkData() {
+    }
+
+    /*
+     * This function returns the i-th synthetic event.
+     */
+    static Event event(int i) {
+        return new Event(
+                i,
+                1 + i % 100,
+                "Event " + i,
+                "Benchmark event number " + i + ", with a description of typical length for the app.",
+                new Timestamp(FIRST_EVENT_MILLIS + i * HOUR_MILLIS),
+                "Science Building, room " + (100 + i % 300),
+                i % 20,
+                5,
+                (i % 4 == 0) ? 0 : 50,
+                "Category" + (i % 10),
+                i % 50
+        );
+    }
+
+    /*
+     * This function returns synthetic events 1 through count.
+     */
+    static List<Event> events(int count) {
+        List<Event> result = new ArrayList<Event>(count);
+        for (int i = 1; i <= count; i++) {
+            result.add(event(i));
+        }
+        return result;
+    }
+
+    /*
+     * This function returns an in-memory ResultSet holding events 1 through count,
+     * with the columns Event.fromResultSet reads, as Query.SELECT_EVENTS returns them.
+     */
+    static CachedRowSet eventRows(int count) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(COLUMN_NAMES.length);
+        for (int column = 1; column <= COLUMN_NAMES.length; column++) {
+            metaData.setColumnName(column, COLUMN_NAMES[column - 1]);
+            metaData.setColumnType(column, COLUMN_TYPES[column - 1]);
+        }
+        CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metaData);
+        for (Event event : events(count)) {
+            rows.moveToInsertRow();
+            rows.updateInt(1, event.getId());
+            rows.updateInt(2, event.getUserId());
+            rows.updateString(3, event.getTitle());
+            rows.updateString(4, event.getDescription());
+            rows.updateTimestamp(5, event.getTime());
+            rows.updateString(6, event.getLocation());
+            rows.updateBigDecimal(7, new BigDecimal(event.getCost()));
+            rows.updateInt(8, event.getThreshold());
+            rows.updateInt(9, event.getCapacity());
+            rows.updateString(10, event.getCategory());
+            rows.updateInt(11, event.getCount());
+            rows.insertRow();
+        }
+        rows.moveToCurrentRow();
+        return rows;
+    }
+
+    /*
+     * This function returns the username:password token a client sends for the given user.
+     */
+    static String token(String username, String password) {
+        return Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
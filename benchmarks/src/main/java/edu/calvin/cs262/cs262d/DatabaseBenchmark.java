@@ -0,0 +1,248 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ConflictException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This benchmark calls the EventResource and UserResource endpoints against a real Postgres database,
+ * so each measurement includes the connection pool, the driver and the queries themselves.
+ * <p>
+ * The database is given by the eventconnect.bench.url system property (by default a local database
+ * named eventconnect_bench) and is WIPED: each trial recreates the schema from EventConnect.sql
+ * (eventconnect.bench.schema, by default EventConnect.sql in the working directory) and loads
+ * the given numbers of events and users, with every tenth event/user pair joined.
+ * For example, from the repository root:
+ * <pre>
+ * java -Deventconnect.bench.url=jdbc:postgresql://localhost/bench?user=postgres \
+ *      -jar benchmarks/target/benchmarks.jar DatabaseBenchmark -p events=100000
+ * </pre>
+ * The EventCache, UpcomingEvents, CategoryIndex and AdmissionController are disabled, so every read reaches the database.
+ * If eventconnect.bench.replicaUrl names a streaming replica of that database, the GET methods read
+ * from it, as they do in production with cloudsql.replicas set.
+ * eventconnect.bench.joinBatch, if above 1, turns on group commit of joins and unjoins with that
+ * batch size; joinAndUnjoin then needs several threads (-t) to fill batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    private static final String DEFAULT_URL = "jdbc:postgresql://localhost/eventconnect_bench?user=postgres";
+    private static final int PAGE_SIZE = 50;
+    // Before every loaded event, which are all in the past; pages would otherwise start from now.
+    private static final Date SINCE = new Date(0);
+
+    @Param({"1000", "10000"})
+    public int events;
+
+    @Param({"100"})
+    public int users;
+
+    private ConnectionPool pool;
+    private ConnectionPool replica;
+    private EventResource eventResource;
+    private UserResource userResource;
+    private String middlePageToken;
+    private final AtomicInteger nextCaller = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException, BadRequestException {
+        String url = System.getProperty("eventconnect.bench.url", DEFAULT_URL);
+        String schema = System.getProperty("eventconnect.bench.schema", "EventConnect.sql");
+        try (Connection connection = DriverManager.getConnection(url)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(new String(Files.readAllBytes(Paths.get(schema)), StandardCharsets.UTF_8));
+            }
+            load(connection);
+        }
+        pool = new ConnectionPool(url, 8, 5000, 30000, 30000);
+        // A streaming replica of the benchmark database, if given, serves the reads of the GET methods.
+        String replicaUrl = System.getProperty("eventconnect.bench.replicaUrl");
+        List<ConnectionPool> replicas = new ArrayList<ConnectionPool>();
+        if (replicaUrl != null) {
+            replica = new ConnectionPool(replicaUrl, 8, 5000, 30000, 30000);
+            replicas.add(replica);
+        }
+        DataSourceRouter reads = new DataSourceRouter(pool, replicas, 0);
+        EventCache cache = new EventCache(0, -1);
+        IdentityResolver identities = new IdentityResolver(1000, 60000);
+        EventVersions versions = new EventVersions(0);
+        UpcomingEvents upcoming = new UpcomingEvents(0, 0, 0);
+        CategoryIndex categories = new CategoryIndex(0);
+        SearchIndex search = new SearchIndex(1, 0);
+        EventWatcher watcher = new EventWatcher(0, 0, 0, 0);
+        AdmissionController admission = new AdmissionController(0);
+        eventResource = new EventResource(pool, reads, new IdAllocator(Query.NEXT_EVENT_ID_BLOCK, IdAllocator.BLOCK_SIZE),
+                cache, identities, upcoming, categories, search, versions, watcher,
+                new JoinCommitter(pool, identities, Integer.getInteger("eventconnect.bench.joinBatch", 1), 2),
+                admission);
+        userResource = new UserResource(pool, reads, new IdAllocator(Query.NEXT_USER_ID_BLOCK, IdAllocator.BLOCK_SIZE),
+                identities, new EventWrites(versions, watcher, admission, cache, upcoming, categories, search));
+        middlePageToken = eventResource.getEvents(events / 2, null, SINCE, null, null, null, null).getNextPageToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+        if (replica != null) {
+            replica.close();
+        }
+    }
+
+    /*
+     * This function adds the benchmark's events, users and joins to the seed rows of EventConnect.sql,
+     * then brings the participant counts and ID sequences up to date.
+     */
+    private void load(Connection connection) throws SQLException {
+        String[] statements = {
+                "INSERT INTO Users (ID, Username, Password) " +
+                        "SELECT g, 'user' || g, 'password' FROM generate_series(2, ?) g",
+                "INSERT INTO Events (ID, UserID, Title, Description, Time, Location, Cost, Threshold, Capacity, Category) " +
+                        "SELECT g, 1, 'Event ' || g, 'Benchmark event number ' || g, " +
+                        "TIMESTAMP '2019-01-01' + g * INTERVAL '1 hour', 'Location ' || (g % 300), " +
+                        "g % 20, 5, 0, 'Category' || (g % 10) FROM generate_series(2, ?) g",
+                "INSERT INTO JoinedEvents (EventID, UserID) " +
+                        "SELECT e, u FROM generate_series(2, ?) e, generate_series(2, ?) u WHERE (e + u) % 10 = 0",
+                "UPDATE Events SET Participants = (SELECT COUNT(*) FROM JoinedEvents WHERE EventID = Events.ID)",
+                "SELECT setval('EventIDs', (SELECT MAX(ID) + 1 FROM Events), false)",
+                "SELECT setval('UserIDs', (SELECT MAX(ID) + 1 FROM Users), false)",
+                "ANALYZE"
+        };
+        int[][] parameters = {{users}, {events}, {events, users}, {}, {}, {}, {}};
+        for (int i = 0; i < statements.length; i++) {
+            try (PreparedStatement statement = connection.prepareStatement(statements[i])) {
+                for (int p = 0; p < parameters[i].length; p++) {
+                    statement.setInt(p + 1, parameters[i][p]);
+                }
+                statement.execute();
+            }
+        }
+    }
+
+    /*
+     * A benchmark thread acting as one of the loaded users, so that concurrent threads
+     * do not join and unjoin the same events as each other.
+     */
+    @State(Scope.Thread)
+    public static class Caller {
+        int userID;
+        String token;
+
+        @Setup
+        public void setUp(DatabaseBenchmark database) {
+            userID = 2 + database.nextCaller.getAndIncrement() % (database.users - 1);
+            token = BenchmarkData.token("user" + userID, "password");
+        }
+    }
+
+    /*
+     * A connection held by one benchmark thread, with the insert and upsert statements prepared on it.
+     */
+    @State(Scope.Thread)
+    public static class Binding {
+        Connection connection;
+        PreparedStatement insert;
+        PreparedStatement upsert;
+        Event event = BenchmarkData.event(42);
+
+        @Setup
+        public void setUp(DatabaseBenchmark database) throws SQLException {
+            connection = database.pool.getConnection();
+            insert = Query.INSERT_EVENT.prepare(connection);
+            upsert = Query.UPSERT_EVENT.prepare(connection);
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public CollectionResponse<Event> getEventsFirstPage() throws SQLException, BadRequestException {
+        return eventResource.getEvents(PAGE_SIZE, null, SINCE, null, null, null, null);
+    }
+
+    @Benchmark
+    public CollectionResponse<Event> getEventsMiddlePage() throws SQLException, BadRequestException {
+        return eventResource.getEvents(PAGE_SIZE, middlePageToken, SINCE, null, null, null, null);
+    }
+
+    @Benchmark
+    public CollectionResponse<Event> getEventsFirstPageSummary() throws SQLException, BadRequestException {
+        return eventResource.getEvents(PAGE_SIZE, null, SINCE, null, null, null, EventResource.SUMMARY_VIEW);
+    }
+
+    @Benchmark
+    public CollectionResponse<Event> getConfirmedEventsFirstPage() throws SQLException, BadRequestException {
+        return eventResource.getEvents(PAGE_SIZE, null, SINCE, null, null, Event.CONFIRMED, null);
+    }
+
+    @Benchmark
+    public CollectionResponse<Event> getAllEvents() throws SQLException, BadRequestException {
+        return eventResource.getEvents(null, null, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public Event getEvent() throws SQLException {
+        return eventResource.getEvent(1 + ThreadLocalRandom.current().nextInt(events));
+    }
+
+    @Benchmark
+    public List<Event> getUserEvents(Caller caller) throws SQLException, BadRequestException {
+        return userResource.getUserEvents(caller.token, null);
+    }
+
+    @Benchmark
+    public List<Event> getUserConfirmedEvents(Caller caller) throws SQLException, BadRequestException {
+        return userResource.getUserConfirmedEvents(caller.token, null);
+    }
+
+    @Benchmark
+    public Event joinAndUnjoin(Caller caller) throws SQLException, ConflictException {
+        int eventID = 1 + ThreadLocalRandom.current().nextInt(events);
+        eventResource.joinEvent(eventID, caller.token);
+        return eventResource.unjoinEvent(eventID, caller.token);
+    }
+
+    @Benchmark
+    public PreparedStatement bindInsertEvent(Binding binding) throws SQLException {
+        binding.insert.clearParameters();
+        binding.insert.setInt(1, binding.event.getId());
+        binding.insert.setInt(2, binding.event.getUserId());
+        EventResource.setEventFields(binding.insert, 3, binding.event);
+        return binding.insert;
+    }
+
+    @Benchmark
+    public PreparedStatement bindUpsertEvent(Binding binding) throws SQLException {
+        binding.upsert.clearParameters();
+        EventResource.setEventFields(binding.upsert, 1, binding.event);
+        binding.upsert.setInt(9, binding.event.getId());
+        binding.upsert.setInt(10, binding.event.getId());
+        binding.upsert.setInt(11, binding.event.getUserId());
+        EventResource.setEventFields(binding.upsert, 12, binding.event);
+        return binding.upsert;
+    }
+}
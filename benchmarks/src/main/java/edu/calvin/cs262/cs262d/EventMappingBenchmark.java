@@ -0,0 +1,43 @@
+package edu.calvin.cs262.cs262d;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.rowset.CachedRowSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures turning query rows into Event objects, as getEvents and getUserEvents
+ * do for every row. The rows come from an in-memory ResultSet, so only the mapping is timed;
+ * DatabaseBenchmark covers the same path with the driver included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventMappingBenchmark {
+
+    @Param({"50", "1000"})
+    public int rows;
+
+    private CachedRowSet resultSet;
+
+    @Setup
+    public void setUp() throws SQLException {
+        resultSet = BenchmarkData.eventRows(rows);
+    }
+
+    @Benchmark
+    public List<Event> mapEvents() throws SQLException {
+        resultSet.beforeFirst();
+        List<Event> result = new ArrayList<Event>();
+        while (resultSet.next()) {
+            result.add(Event.fromResultSet(resultSet));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.server.spi.config.model.ApiSerializationConfig;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ServletResponseResultWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures serializing a list of events to JSON with the same object mapper
+ * configuration Endpoints uses to write responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"50", "1000"})
+    public int events;
+
+    private JsonWriter writer;
+    private CollectionResponse<Event> response;
+
+    @Setup
+    public void setUp() {
+        writer = new JsonWriter();
+        response = CollectionResponse.<Event>builder().setItems(BenchmarkData.events(events)).build();
+    }
+
+    @Benchmark
+    public String writeEvents() throws IOException {
+        return writer.toJson(response);
+    }
+
+    /*
+     * The Endpoints result writer, used only for its object mapper; nothing is written to a response.
+     */
+    private static class JsonWriter extends ServletResponseResultWriter {
+        JsonWriter() {
+            super(null, new ApiSerializationConfig());
+        }
+
+        String toJson(Object value) throws IOException {
+            return writeValueAsString(value);
+        }
+    }
+}
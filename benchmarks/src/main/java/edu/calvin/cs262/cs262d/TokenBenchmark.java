@@ -0,0 +1,30 @@
+package edu.calvin.cs262.cs262d;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures extracting the username from a request token, which every
+ * authenticated endpoint does before it can look up the user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenBenchmark {
+
+    private String token;
+
+    @Setup
+    public void setUp() {
+        token = BenchmarkData.token("benchmarkuser42", "correct-horse-battery-staple");
+    }
+
+    @Benchmark
+    public String usernameOf() {
+        return IdentityResolver.usernameOf(token);
+    }
+}
@@ -0,0 +1,177 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.server.spi.config.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static com.google.api.server.spi.config.ApiMethod.HttpMethod.*;
+
+/**
+ * This class provides operational endpoints for the EventConnect server.
+ * Every path lives under admin/, which web.xml restricts to project administrators.
+ * <p>
+ * The Api annotation must match the configuration of the other resources in the eventconnect API.
+ */
+@Api(
+        name = "eventconnect",
+        version = "v1",
+        namespace =
+        @ApiNamespace(
+                ownerDomain = "cs262d.cs262.calvin.edu",
+                ownerName = "cs262d.cs262.calvin.edu",
+                packagePath = ""
+        ),
+        issuers = {
+                @ApiIssuer(
+                        name = "firebase",
+                        issuer = "https://securetoken.google.com/YOUR-PROJECT-ID",
+                        jwksUri =
+                                "https://www.googleapis.com/robot/v1/metadata/x509/securetoken@system"
+                                        + ".gserviceaccount.com"
+                )
+        }
+)
+
+public class AdminResource {
+
+    private static final Logger LOGGER = Logger.getLogger(AdminResource.class.getName());
+
+    // SQLSTATE Postgres reports when a REPEATABLE READ transaction hits a concurrent update.
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    private final ConnectionPool pool;
+    private final EventCache cache;
+    private final EventVersions versions;
+    private final AdmissionController admission;
+
+    public AdminResource() {
+        this(ConnectionPool.getInstance(), EventCache.getInstance(), EventVersions.getInstance(),
+                AdmissionController.getInstance());
+    }
+
+    public AdminResource(ConnectionPool pool, EventCache cache, EventVersions versions, AdmissionController admission) {
+        this.pool = pool;
+        this.cache = cache;
+        this.versions = versions;
+        this.admission = admission;
+    }
+
+    /**
+     * GET
+     * This method reports the size and usage counters of this instance's connection pool.
+     *
+     * @return JSON-formatted pool statistics
+     */
+    @ApiMethod(path = "admin/pool", httpMethod = GET)
+    public PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /**
+     * GET
+     * This method reports the size and hit/miss/eviction counters of this instance's event cache.
+     *
+     * @return JSON-formatted cache statistics
+     */
+    @ApiMethod(path = "admin/cache", httpMethod = GET)
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * GET
+     * This method recounts JoinedEvents for every event and repairs any maintained participant
+     * count that has drifted from it. App Engine cron calls it periodically (see cron.xml), which
+     * is why it is a GET.
+     * <p>
+     * It runs as one REPEATABLE READ transaction, so a join that commits while it runs makes it fail
+     * rather than overwrite the join's increment with a stale count; the next run then picks up any drift.
+     *
+     * @return JSON-formatted list of the repaired counts (based on a root JSON tag of "items")
+     * @throws SQLException
+     */
+    @ApiMethod(path = "admin/reconcile", httpMethod = GET)
+    public List<CountRepair> reconcileParticipants() throws SQLException {
+        Connection connection = null;
+        ResultSet resultSet = null;
+        List<CountRepair> result = new ArrayList<CountRepair>();
+        try {
+            connection = pool.getConnection();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            resultSet = Query.RECONCILE_PARTICIPANTS.prepare(connection).executeQuery();
+            while (resultSet.next()) {
+                result.add(new CountRepair(
+                        resultSet.getInt(1),    // eventId
+                        resultSet.getInt(2),    // storedCount
+                        resultSet.getInt(3)     // actualCount
+                ));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            if (SERIALIZATION_FAILURE.equals(e.getSQLState())) {
+                LOGGER.info("participant reconciliation overlapped a concurrent join; skipping this run");
+                return new ArrayList<CountRepair>();
+            }
+            throw (e);
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+        for (CountRepair repair : result) {
+            LOGGER.warning("repaired participant count of event " + repair.getEventId() + " from "
+                    + repair.getStoredCount() + " to " + repair.getActualCount());
+            cache.invalidate(repair.getEventId());
+            admission.eventRemoved(repair.getEventId());
+            versions.eventChanged(repair.getEventId());
+        }
+        return result;
+    }
+
+    /**
+     * GET
+     * This method compacts the event change log behind GET events/changes: it deletes each change
+     * that a later change to the same event makes redundant, then the deletions older than the
+     * eventconnect.changes.retentionMillis system property (7 days by default), moving the log's
+     * horizon past them. App Engine cron calls it daily (see cron.xml), which is why it is a GET.
+     *
+     * @return JSON-formatted compaction counts and the new horizon
+     * @throws SQLException
+     */
+    @ApiMethod(path = "admin/compact-changes", httpMethod = GET)
+    public ChangeLogCompaction compactChanges() throws SQLException {
+        long retentionMillis = Long.getLong("eventconnect.changes.retentionMillis", 7L * 24 * 3600 * 1000);
+        Connection connection = null;
+        ResultSet resultSet = null;
+        ChangeLogCompaction result;
+        try {
+            connection = pool.getConnection();
+            connection.setAutoCommit(false);
+            resultSet = Query.COLLAPSE_EVENT_CHANGES.prepare(connection).executeQuery();
+            resultSet.next();
+            int collapsed = resultSet.getInt(1);
+            resultSet.close();
+            PreparedStatement drop = Query.DROP_EVENT_TOMBSTONES.prepare(connection);
+            drop.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retentionMillis));
+            resultSet = drop.executeQuery();
+            resultSet.next();
+            result = new ChangeLogCompaction(collapsed, resultSet.getInt(2), resultSet.getLong(1));
+            connection.commit();
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+        LOGGER.info("compacted the event change log: " + result.getCollapsed() + " collapsed, "
+                + result.getDropped() + " deletions dropped, horizon " + result.getHorizon());
+        return result;
+    }
+}
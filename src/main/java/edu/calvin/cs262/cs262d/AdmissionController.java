@@ -0,0 +1,136 @@
+package edu.calvin.cs262.cs262d;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class turns away joins to full events before they reach the database. When a popular event
+ * opens, its seats are gone within seconds, and every later join would still borrow a connection and
+ * run JOIN_EVENT just to be told the event is full. Instead, this instance keeps a counter of the free
+ * seats of each capacity-limited event it has seen written, and each join takes a seat from it with a
+ * compare-and-set, or is refused at once if there is none left.
+ * <p>
+ * The database stays the authority: a join given a seat here can still find the event full, and every
+ * event a write returns resets its counter from the event's participant count, which JOIN_EVENT and
+ * UNJOIN_EVENT keep equal to its JoinedEvents rows (and GET admin/reconcile repairs). Other instances
+ * take seats too, so counters are only trusted for ttlMillis after they were last reset; after that,
+ * joins go to the database until a write resets the counter again. A ttlMillis of 0 turns admission off.
+ */
+public class AdmissionController {
+
+    private static AdmissionController instance;
+
+    private final long ttlMillis;
+    private final Map<Integer, Seats> seats = new ConcurrentHashMap<Integer, Seats>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+
+    /**
+     * This method returns the controller shared by this instance. How long its counters are trusted
+     * comes from the eventconnect.admission.ttlMillis system property.
+     */
+    public static synchronized AdmissionController getInstance() {
+        if (instance == null) {
+            instance = new AdmissionController(Long.getLong("eventconnect.admission.ttlMillis", 2000));
+        }
+        return instance;
+    }
+
+    public AdmissionController(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * This method takes a seat at the given event for a join about to run, and returns whether the
+     * join may go ahead: false only if this instance recently saw the event full and has seen no seat
+     * freed since. A refused join may still be one the user has already made, which the caller must
+     * let succeed.
+     */
+    public boolean tryAdmit(int eventID) {
+        Seats entry = seats.get(eventID);
+        if (entry == null || System.currentTimeMillis() - entry.resetAt > ttlMillis) {
+            unknown.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int free = entry.free.get();
+            if (free <= 0) {
+                refused.incrementAndGet();
+                return false;
+            }
+            if (entry.free.compareAndSet(free, free - 1)) {
+                admitted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * This method gives back the seat tryAdmit took for a join that failed before the database said
+     * how many seats are left. Joins that reach the database need not, since the event they return
+     * resets the counter. A counter reset meanwhile gains a seat it should not have, which only
+     * sends one more join to the database.
+     */
+    public void release(int eventID) {
+        Seats entry = seats.get(eventID);
+        if (entry != null) {
+            entry.free.incrementAndGet();
+        }
+    }
+
+    /**
+     * This method resets the counter of an event from its state as a write just left it.
+     */
+    public void eventChanged(Event event) {
+        if (ttlMillis <= 0 || event.getCapacity() <= 0) {
+            seats.remove(event.getId());
+        } else {
+            seats.put(event.getId(), new Seats(event.getCapacity() - event.getCount()));
+        }
+    }
+
+    /**
+     * This method records that a join found the given event full in the database.
+     */
+    public void eventFull(int eventID) {
+        if (ttlMillis > 0) {
+            seats.put(eventID, new Seats(0));
+        }
+    }
+
+    /**
+     * This method forgets the counter of an event that has been deleted, or whose count was repaired.
+     */
+    public void eventRemoved(int eventID) {
+        seats.remove(eventID);
+    }
+
+    /**
+     * This method writes the admission counters in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writePrometheus(PrintWriter out) {
+        out.println("# HELP eventconnect_admissions_total Joins checked against this instance's seat counters, "
+                + "by outcome: admitted, refused, or unknown (no trusted counter, so sent to the database).");
+        out.println("# TYPE eventconnect_admissions_total counter");
+        out.println("eventconnect_admissions_total{outcome=\"admitted\"} " + admitted.get());
+        out.println("eventconnect_admissions_total{outcome=\"refused\"} " + refused.get());
+        out.println("eventconnect_admissions_total{outcome=\"unknown\"} " + unknown.get());
+    }
+
+    /*
+     * The free seats of one event, from the time they were read from a write's result.
+     */
+    private static class Seats {
+        private final AtomicInteger free;
+        private final long resetAt = System.currentTimeMillis();
+
+        Seats(int free) {
+            this.free = new AtomicInteger(free);
+        }
+    }
+}
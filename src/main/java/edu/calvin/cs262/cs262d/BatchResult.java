@@ -0,0 +1,38 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class reports the outcome of one item of a batch request: the ID of the event or user
+ * it concerned and what happened to it. Results are returned in the order of the request items.
+ * waitlistEvent reports its single outcome the same way.
+ */
+public class BatchResult {
+
+    public static final String CREATED = "created";
+    public static final String JOINED = "joined";
+    public static final String ALREADY_JOINED = "alreadyJoined";
+    public static final String LEFT = "left";
+    public static final String NOT_JOINED = "notJoined";
+    public static final String FULL = "full";
+    public static final String WAITLISTED = "waitlisted";
+    public static final String NOT_FOUND = "notFound";
+
+    private int id;
+    private String status;
+
+    public BatchResult() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public BatchResult(int id, String status) {
+        this.id = id;
+        this.status = status;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
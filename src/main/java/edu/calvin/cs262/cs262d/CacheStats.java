@@ -0,0 +1,65 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class holds a snapshot of the event cache's size and hit/miss/eviction counters,
+ * as reported by the admin/cache endpoint.
+ */
+public class CacheStats {
+
+    private int maxSize;
+    private int size;
+    private boolean listCached;
+    private long hits;
+    private long misses;
+    private long listHits;
+    private long listMisses;
+    private long evictions;
+
+    public CacheStats() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public CacheStats(int maxSize, int size, boolean listCached, long hits, long misses,
+                      long listHits, long listMisses, long evictions) {
+        this.maxSize = maxSize;
+        this.size = size;
+        this.listCached = listCached;
+        this.hits = hits;
+        this.misses = misses;
+        this.listHits = listHits;
+        this.listMisses = listMisses;
+        this.evictions = evictions;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isListCached() {
+        return listCached;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getListHits() {
+        return listHits;
+    }
+
+    public long getListMisses() {
+        return listMisses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,27 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class reports how many events have a given category, for the category facet listing.
+ */
+public class CategoryCount {
+
+    private String category;
+    private int count;
+
+    public CategoryCount() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public CategoryCount(String category, int count) {
+        this.category = category;
+        this.count = count;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,209 @@
+package edu.calvin.cs262.cs262d;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * This class indexes every event of this instance by category: for each category, the IDs of its
+ * events in (Time, ID) order, and how many there are. Category listings look up a page of IDs
+ * here and read only those events, and the facet counts need no query at all.
+ * <p>
+ * The index is read from the database when first used and again every refreshMillis, which bounds
+ * how long it misses a change made through another App Engine instance. EventResource updates it
+ * after each of its writes. Writes made while the index is being loaded are applied to the loaded
+ * index before it is installed, as SearchIndex does, so a steady stream of joins cannot keep every
+ * load from being installed.
+ */
+public class CategoryIndex {
+
+    private static CategoryIndex instance;
+
+    private final long refreshMillis;
+
+    // Replaced as a whole by each load, and updated in place by writes.
+    private volatile Snapshot snapshot;
+    // Guarded by this: whether a load is under way, and the writes made since it started (null for a deleted event).
+    private boolean loading = false;
+    private Map<Integer, Event> pending;
+
+    /**
+     * This method returns the index shared by this instance. Its refresh interval comes from the
+     * eventconnect.categories.refreshMillis system property; 0 disables the index.
+     */
+    public static synchronized CategoryIndex getInstance() {
+        if (instance == null) {
+            instance = new CategoryIndex(Long.getLong("eventconnect.categories.refreshMillis", 60000));
+        }
+        return instance;
+    }
+
+    public CategoryIndex(long refreshMillis) {
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * This method returns the IDs of up to limit events in the given category, from the given
+     * (Time, ID) position (inclusive) to the given time (exclusive, or unbounded if null), in order.
+     * It returns null if the index is not loaded or is due for a refresh.
+     */
+    public List<Integer> page(String category, EventCursor from, Timestamp to, int limit) {
+        Snapshot current = snapshot;
+        if (!isFresh(current)) {
+            return null;
+        }
+        List<Integer> result = new ArrayList<Integer>();
+        ConcurrentSkipListSet<EventCursor> positions = current.byCategory.get(category);
+        if (positions == null) {
+            return result;
+        }
+        for (EventCursor position : positions.tailSet(from, true)) {
+            if (result.size() == limit || position.getTime() == null
+                    || (to != null && !position.getTime().before(to))) {
+                break;
+            }
+            result.add(position.getId());
+        }
+        return result;
+    }
+
+    /**
+     * This method returns the number of events in each category, in category order,
+     * or null if the index is not loaded or is due for a refresh.
+     */
+    public synchronized List<CategoryCount> counts() {
+        Snapshot current = snapshot;
+        if (!isFresh(current)) {
+            return null;
+        }
+        List<CategoryCount> result = new ArrayList<CategoryCount>();
+        for (Map.Entry<String, Integer> entry : new TreeMap<String, Integer>(current.counts).entrySet()) {
+            result.add(new CategoryCount(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * This method reloads the index from the database, using the given connection, if it is
+     * not loaded or is due for a refresh and no other request is already reloading it.
+     *
+     * @throws SQLException
+     */
+    public void refresh(Connection connection) throws SQLException {
+        synchronized (this) {
+            if (refreshMillis == 0 || loading || isFresh(snapshot)) {
+                return;
+            }
+            loading = true;
+            pending = new HashMap<Integer, Event>();
+        }
+        Snapshot loaded = null;
+        ResultSet resultSet = null;
+        try {
+            Snapshot reading = new Snapshot(System.currentTimeMillis());
+            resultSet = Query.SELECT_EVENT_CATEGORIES.prepare(connection).executeQuery();
+            while (resultSet.next()) {
+                reading.put(resultSet.getInt(1), resultSet.getTimestamp(2), resultSet.getString(3));
+            }
+            loaded = reading;
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            synchronized (this) {
+                if (loaded != null) {
+                    for (Map.Entry<Integer, Event> write : pending.entrySet()) {
+                        loaded.remove(write.getKey());
+                        if (write.getValue() != null) {
+                            loaded.put(write.getKey(), write.getValue().getTime(), write.getValue().getCategory());
+                        }
+                    }
+                    snapshot = loaded;
+                }
+                loading = false;
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * This method records an event that was just created or modified, as read back after the write.
+     */
+    public synchronized void eventChanged(Event event) {
+        if (pending != null) {
+            pending.put(event.getId(), event);
+        }
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.remove(event.getId());
+            current.put(event.getId(), event.getTime(), event.getCategory());
+        }
+    }
+
+    /**
+     * This method forgets the event with the given ID, which has been deleted.
+     */
+    public synchronized void eventRemoved(int id) {
+        if (pending != null) {
+            pending.put(id, null);
+        }
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.remove(id);
+        }
+    }
+
+    private boolean isFresh(Snapshot current) {
+        return current != null && System.currentTimeMillis() - current.loadedAt <= refreshMillis;
+    }
+
+    /*
+     * The category of every event with one, and each category's events in (Time, ID) order.
+     * Untimed events are indexed too, after the timed ones, although time-window listings never reach them.
+     */
+    private static class Snapshot {
+        private final long loadedAt;
+        private final Map<String, ConcurrentSkipListSet<EventCursor>> byCategory =
+                new ConcurrentHashMap<String, ConcurrentSkipListSet<EventCursor>>();
+        // Guarded by the CategoryIndex instance.
+        private final Map<Integer, EventCursor> positions = new HashMap<Integer, EventCursor>();
+        private final Map<Integer, String> categories = new HashMap<Integer, String>();
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        Snapshot(long loadedAt) {
+            this.loadedAt = loadedAt;
+        }
+
+        void put(int id, Timestamp time, String category) {
+            if (category == null) {
+                return;
+            }
+            EventCursor position = new EventCursor(time, id);
+            positions.put(id, position);
+            categories.put(id, category);
+            byCategory.computeIfAbsent(category, c -> new ConcurrentSkipListSet<EventCursor>(EventCursor.POSITION))
+                    .add(position);
+            counts.merge(category, 1, Integer::sum);
+        }
+
+        void remove(int id) {
+            String category = categories.remove(id);
+            if (category == null) {
+                return;
+            }
+            EventCursor position = positions.remove(id);
+            ConcurrentSkipListSet<EventCursor> set = byCategory.get(category);
+            set.remove(position);
+            if (counts.merge(category, -1, Integer::sum) == 0) {
+                counts.remove(category);
+                byCategory.remove(category);
+            }
+        }
+    }
+}
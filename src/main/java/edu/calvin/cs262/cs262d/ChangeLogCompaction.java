@@ -0,0 +1,35 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class reports what one compaction of the event change log removed: the changes that later
+ * changes made redundant, and the deletions older than the retention period. Clients whose watermark
+ * is below the new horizon must fetch every event again.
+ */
+public class ChangeLogCompaction {
+
+    private int collapsed;
+    private int dropped;
+    private long horizon;
+
+    public ChangeLogCompaction() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public ChangeLogCompaction(int collapsed, int dropped, long horizon) {
+        this.collapsed = collapsed;
+        this.dropped = dropped;
+        this.horizon = horizon;
+    }
+
+    public int getCollapsed() {
+        return collapsed;
+    }
+
+    public int getDropped() {
+        return dropped;
+    }
+
+    public long getHorizon() {
+        return horizon;
+    }
+}
@@ -0,0 +1,146 @@
+package edu.calvin.cs262.cs262d;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * This filter gives the event GET endpoints an ETag from EventVersions and answers a request whose
+ * If-None-Match holds the current ETag with 304 Not Modified, before it reaches the endpoint, so an
+ * unchanged resource costs no query and no JSON. A single event is tagged with its own version;
+ * event lists (including a user's events) change with any event, so they are tagged with the event set's.
+ * The change feed, its long poll and search are not tagged.
+ * <p>
+ * The ETag is read before the endpoint runs, so a write that lands meanwhile can only make it older
+ * than the response, and the next request then gets the full response again. That only holds if the
+ * endpoint reads from the primary: a lagging replica could return a body older than the ETag, which
+ * clients would then keep. So requests that DataSourceRouter may send to a replica are neither tagged
+ * nor answered with 304.
+ */
+public class ConditionalGetFilter implements Filter {
+
+    private static final String API_PREFIX = "/_ah/api/eventconnect/v1/";
+
+    private EventVersions versions;
+    private DataSourceRouter router;
+
+    @Override
+    public void init(FilterConfig config) {
+        versions = EventVersions.getInstance();
+        router = DataSourceRouter.getInstance();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String tag = "GET".equals(httpRequest.getMethod()) && router.readsFromPrimary()
+                ? tagFor(httpRequest.getRequestURI()) : null;
+        if (tag == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        if (matches(httpRequest.getHeader("If-None-Match"), tag)) {
+            httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            httpResponse.setHeader("ETag", tag);
+            return;
+        }
+        chain.doFilter(request, new TaggedResponse(httpResponse, tag));
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /*
+     * This function returns the current ETag for an API path, or null if the path is not tagged.
+     */
+    private String tagFor(String uri) {
+        if (uri == null || !uri.startsWith(API_PREFIX)) {
+            return null;
+        }
+        String path = uri.substring(API_PREFIX.length());
+        if (path.startsWith("events/watch")) {
+            // Long polls wait for a change instead.
+            return null;
+        }
+        if (path.startsWith("events/changes") || path.startsWith("events/search")) {
+            // Their answers depend on the query string (a feed position or search terms), and the
+            // feed must show writes made through other instances at once, not a period later.
+            return null;
+        }
+        if (path.equals("events") || path.startsWith("events/") || path.startsWith("user/events/")) {
+            return versions.setTag();
+        }
+        if (path.startsWith("event/") && path.indexOf('/', "event/".length()) < 0) {
+            try {
+                return versions.eventTag(Integer.parseInt(path.substring("event/".length())));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * This function reports whether an If-None-Match header lists the given ETag, comparing weakly.
+     */
+    private static boolean matches(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = tag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * A response that carries the ETag and asks clients to revalidate it, but only if it succeeds;
+     * the headers are added when the endpoint starts writing the body, after it has set the status.
+     */
+    private static class TaggedResponse extends HttpServletResponseWrapper {
+        private final String tag;
+
+        TaggedResponse(HttpServletResponse response, String tag) {
+            super(response);
+            this.tag = tag;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addTag();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addTag();
+            return super.getWriter();
+        }
+
+        private void addTag() {
+            if (getStatus() == HttpServletResponse.SC_OK && !isCommitted()) {
+                setHeader("ETag", tag);
+                setHeader("Cache-Control", "no-cache");
+            }
+        }
+    }
+}
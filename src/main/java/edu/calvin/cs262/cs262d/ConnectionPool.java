@@ -0,0 +1,388 @@
+package edu.calvin.cs262.cs262d;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class implements a bounded pool of JDBC connections to the EventConnect database.
+ * Opening a Cloud SQL connection costs a socket handshake, so the resource classes borrow
+ * connections from this pool instead of calling DriverManager for every request.
+ * <p>
+ * Connections handed out by the pool are proxies; calling close() on them returns the
+ * underlying physical connection to the pool rather than closing it, so the usual
+ * try/finally clean-up code in the resources works unchanged. Each physical connection also
+ * keeps the statements prepared on it (see Query), so they survive from one borrower to the next.
+ * <p>
+ * The pool is configured with these system properties (see appengine-web.xml):
+ * cloudsql (JDBC URL), cloudsql.pool.size (max connections), cloudsql.pool.maxWaitMillis,
+ * cloudsql.pool.validateAfterMillis and cloudsql.pool.leakThresholdMillis.
+ */
+public class ConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long LEAK_SCAN_INTERVAL_MILLIS = 1000;
+
+    private static ConnectionPool instance;
+
+    private final String url;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long validateAfterMillis;
+    private final long leakThresholdMillis;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+    private volatile long lastLeakScan = 0;
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    /**
+     * This method returns the pool shared by every resource on this instance, creating it on first use.
+     */
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new ConnectionPool(
+                    System.getProperty("cloudsql"),
+                    Integer.getInteger("cloudsql.pool.size", 8),
+                    Long.getLong("cloudsql.pool.maxWaitMillis", 5000),
+                    Long.getLong("cloudsql.pool.validateAfterMillis", 30000),
+                    Long.getLong("cloudsql.pool.leakThresholdMillis", 30000)
+            );
+        }
+        return instance;
+    }
+
+    /**
+     * This method closes the shared pool, if one was created. It is called when the instance shuts down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    public ConnectionPool(String url, int maxSize, long maxWaitMillis, long validateAfterMillis,
+                          long leakThresholdMillis) {
+        if (url == null) {
+            throw new IllegalArgumentException("no JDBC URL configured for the connection pool");
+        }
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("connection pool size must be at least 1");
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * This method borrows a connection from the pool, opening a new physical connection if no
+     * idle one is available and the pool is below its maximum size. Closing the returned
+     * connection gives it back to the pool.
+     *
+     * @return a pooled connection
+     * @throws SQLException if no connection becomes available within the configured wait time
+     */
+    public Connection getConnection() throws SQLException {
+        Connection result = borrow(maxWaitMillis);
+        if (result == null) {
+            timeoutCount.incrementAndGet();
+            throw new SQLException("timed out waiting for a pooled connection (" + active.size() + " in use)");
+        }
+        return result;
+    }
+
+    /**
+     * This method borrows a connection as getConnection does, but only if one can be had without
+     * waiting for another borrower to return theirs, as callers with somewhere else to go prefer.
+     *
+     * @return a pooled connection, or null if every connection is in use
+     * @throws SQLException if a new physical connection cannot be opened
+     */
+    public Connection tryGetConnection() throws SQLException {
+        return borrow(0);
+    }
+
+    /*
+     * This function borrows a connection, waiting up to the given time for one to be returned, or
+     * returns null if none is.
+     */
+    private Connection borrow(long waitMillis) throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool has been shut down");
+        }
+        scanForLeaks();
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a pooled connection", e);
+        }
+        waitNanos.addAndGet(System.nanoTime() - start);
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url));
+                createdCount.incrementAndGet();
+            }
+            pooled.borrow();
+            active.add(pooled);
+            borrowCount.incrementAndGet();
+            RequestTimer timer = RequestTimer.current();
+            if (timer != null) {
+                timer.addAcquire(System.nanoTime() - start);
+            }
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * This method returns the given query prepared on the given connection. For a pooled connection
+     * the statement is prepared once per physical connection and cached; any other connection gets
+     * a fresh statement, which is closed along with that connection.
+     */
+    static PreparedStatement cachedStatement(Connection connection, Query query) throws SQLException {
+        if (Proxy.isProxyClass(connection.getClass())
+                && Proxy.getInvocationHandler(connection) instanceof PooledConnection) {
+            PooledConnection pooled = (PooledConnection) Proxy.getInvocationHandler(connection);
+            if (pooled.returned || connection != pooled.proxy) {
+                throw new SQLException("connection has already been returned to the pool");
+            }
+            PreparedStatement statement = pooled.statements.get(query);
+            if (statement == null) {
+                statement = TimedStatement.wrap(query.prepareOn(pooled.physical));
+                pooled.statements.put(query, statement);
+            }
+            return statement;
+        }
+        return query.prepareOn(connection);
+    }
+
+    /**
+     * This method returns a snapshot of the pool's size and usage counters.
+     */
+    public PoolStats getStats() {
+        long borrows = borrowCount.get();
+        return new PoolStats(
+                maxSize,
+                active.size(),
+                idle.size(),
+                createdCount.get(),
+                borrows,
+                timeoutCount.get(),
+                validationFailureCount.get(),
+                leakCount.get(),
+                (borrows == 0) ? 0 : waitNanos.get() / 1e6 / borrows
+        );
+    }
+
+    /**
+     * This method closes every idle connection and refuses further borrowing.
+     * Connections still in use are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closePhysical();
+        }
+    }
+
+    /*
+     * This function takes the most recently used idle connection, validating (and discarding)
+     * connections that have sat idle longer than the validation interval.
+     */
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.lastUsed < validateAfterMillis || pooled.isValid()) {
+                return pooled;
+            }
+            validationFailureCount.incrementAndGet();
+            pooled.closePhysical();
+        }
+        return null;
+    }
+
+    /*
+     * This function puts a connection back into the pool after its borrower closed it.
+     * Connections left in a transaction are rolled back and returned to autocommit and the
+     * default READ COMMITTED isolation; broken ones are discarded.
+     */
+    private void release(PooledConnection pooled) {
+        active.remove(pooled);
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                pooled.closePhysical();
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (pooled.isolationChanged) {
+                pooled.physical.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                pooled.isolationChanged = false;
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "discarding pooled connection that failed to reset", e);
+            pooled.closePhysical();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /*
+     * This function logs connections that have been borrowed for longer than the leak threshold.
+     * Each leaked connection is reported once; it is not reclaimed, since its borrower may still be using it.
+     */
+    private void scanForLeaks() {
+        long now = System.currentTimeMillis();
+        if (now - lastLeakScan < LEAK_SCAN_INTERVAL_MILLIS) {
+            return;
+        }
+        lastLeakScan = now;
+        for (PooledConnection pooled : active) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                pooled.leakReported = true;
+                leakCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "connection borrowed by " + pooled.borrower + " has not been returned after "
+                        + (now - pooled.borrowedAt) + "ms", pooled.borrowSite);
+            }
+        }
+    }
+
+    /*
+     * This class wraps a physical connection and hands out a proxy for it. The proxy intercepts
+     * close() to return the connection to the pool and rejects use after it has been returned.
+     */
+    private class PooledConnection implements InvocationHandler {
+
+        private final Connection physical;
+        // Only touched by the thread currently borrowing this connection.
+        private final Map<Query, PreparedStatement> statements = new EnumMap<Query, PreparedStatement>(Query.class);
+        private Connection proxy;
+        private volatile long borrowedAt;
+        private volatile long lastUsed;
+        private volatile String borrower;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+        private volatile boolean returned = true;
+        private boolean isolationChanged;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        void borrow() {
+            borrowedAt = System.currentTimeMillis();
+            borrower = Thread.currentThread().getName();
+            borrowSite = LOGGER.isLoggable(Level.FINE) ? new Throwable("connection borrowed here") : null;
+            leakReported = false;
+            returned = false;
+            // A fresh proxy per borrow, so a stale reference held by a previous borrower cannot reach this one.
+            proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        boolean isValid() {
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "failed to close pooled connection", e);
+            }
+        }
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (target != proxy) {
+                // A proxy from an earlier borrow: it only ever reports itself as closed.
+                if (name.equals("close") || name.equals("isClosed")) {
+                    return name.equals("isClosed") ? Boolean.TRUE : null;
+                }
+                throw new SQLException("connection has already been returned to the pool");
+            }
+            switch (name) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "equals":
+                    return target == args[0];
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "toString":
+                    return "Pooled[" + physical + "]";
+                case "setTransactionIsolation":
+                    isolationChanged = true;
+                    return invokePhysical(method, args);
+                default:
+                    return invokePhysical(method, args);
+            }
+        }
+
+        /*
+         * This function passes a call on the proxy through to the physical connection.
+         */
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            if (returned) {
+                throw new SQLException("connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
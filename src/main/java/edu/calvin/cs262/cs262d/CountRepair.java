@@ -0,0 +1,34 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class describes one participant count that the reconciliation job found out of step
+ * with the JoinedEvents table, and the value it was repaired to.
+ */
+public class CountRepair {
+
+    private int eventId;
+    private int storedCount;
+    private int actualCount;
+
+    public CountRepair() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public CountRepair(int eventId, int storedCount, int actualCount) {
+        this.eventId = eventId;
+        this.storedCount = storedCount;
+        this.actualCount = actualCount;
+    }
+
+    public int getEventId() {
+        return eventId;
+    }
+
+    public int getStoredCount() {
+        return storedCount;
+    }
+
+    public int getActualCount() {
+        return actualCount;
+    }
+}
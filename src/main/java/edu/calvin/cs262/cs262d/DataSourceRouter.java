@@ -0,0 +1,149 @@
+package edu.calvin.cs262.cs262d;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * This class sends the reads of the GET endpoints to read replicas of the EventConnect database, in
+ * turn, and everything else to the primary ConnectionPool. Reads whose results are kept in this
+ * instance's caches and indexes stay on the primary too, so a lagging replica cannot undo the updates
+ * this instance's own writes make to them. Without replicas every read goes to the primary.
+ * <p>
+ * Replicas apply the primary's changes asynchronously, so a client that has just written could read
+ * from a replica that has not seen its write yet. ReadYourWritesFilter keeps each client that writes
+ * on the primary for stickyMillis after its write, which should exceed the replicas' usual lag.
+ * <p>
+ * The replicas are configured with these system properties (see appengine-web.xml):
+ * cloudsql.replicas (JDBC URLs separated by whitespace; none by default) and
+ * cloudsql.replicas.stickyMillis. Each replica gets a pool sized as the primary's.
+ */
+public class DataSourceRouter {
+
+    private static final Logger LOGGER = Logger.getLogger(DataSourceRouter.class.getName());
+
+    // How long a replica that failed to open a connection is left out before it is tried again.
+    private static final long RETRY_AFTER_MILLIS = 5000;
+
+    // Set by ReadYourWritesFilter for the requests of clients that have written recently.
+    private static final ThreadLocal<Boolean> PRIMARY_ONLY = new ThreadLocal<Boolean>();
+
+    private static DataSourceRouter instance;
+
+    private final ConnectionPool primary;
+    private final List<ConnectionPool> replicas;
+    private final long stickyMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    // When each replica, by index, may be tried again after a failure; 0 if it has not failed.
+    private final AtomicLongArray retryAt;
+
+    /**
+     * This method returns the router shared by every resource on this instance, creating the replica pools on first use.
+     */
+    public static synchronized DataSourceRouter getInstance() {
+        if (instance == null) {
+            List<ConnectionPool> replicas = new ArrayList<ConnectionPool>();
+            String urls = System.getProperty("cloudsql.replicas", "").trim();
+            if (!urls.isEmpty()) {
+                for (String url : urls.split("\\s+")) {
+                    replicas.add(new ConnectionPool(
+                            url,
+                            Integer.getInteger("cloudsql.pool.size", 8),
+                            Long.getLong("cloudsql.pool.maxWaitMillis", 5000),
+                            Long.getLong("cloudsql.pool.validateAfterMillis", 30000),
+                            Long.getLong("cloudsql.pool.leakThresholdMillis", 30000)
+                    ));
+                }
+            }
+            instance = new DataSourceRouter(ConnectionPool.getInstance(), replicas,
+                    Long.getLong("cloudsql.replicas.stickyMillis", 5000));
+        }
+        return instance;
+    }
+
+    /**
+     * This method closes the replica pools, if they were created. It is called when the instance shuts down.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            for (ConnectionPool replica : instance.replicas) {
+                replica.close();
+            }
+            instance = null;
+        }
+    }
+
+    public DataSourceRouter(ConnectionPool primary, List<ConnectionPool> replicas, long stickyMillis) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.stickyMillis = stickyMillis;
+        this.retryAt = new AtomicLongArray(replicas.size());
+    }
+
+    /**
+     * This method borrows a connection for reads that may be served from a replica: from the next
+     * replica in turn, or from the primary if there are none, if the current request must see its
+     * client's recent writes, or if no replica can hand out a connection. Replicas are only asked for
+     * a connection they have free, so a busy replica costs no wait; a replica that fails to open one
+     * is left out for RETRY_AFTER_MILLIS. Only the primary is waited for.
+     *
+     * @return a pooled connection, to be closed as usual
+     * @throws SQLException if no connection becomes available from the primary either
+     */
+    public Connection getReadConnection() throws SQLException {
+        if (readsFromPrimary()) {
+            return primary.getConnection();
+        }
+        int first = Math.floorMod(next.getAndIncrement(), replicas.size());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < replicas.size(); i++) {
+            int replica = (first + i) % replicas.size();
+            if (retryAt.get(replica) > now) {
+                continue;
+            }
+            try {
+                Connection connection = replicas.get(replica).tryGetConnection();
+                if (connection != null) {
+                    return connection;
+                }
+            } catch (SQLException e) {
+                LOGGER.warning("failed to open a replica connection, leaving the replica out for "
+                        + RETRY_AFTER_MILLIS + " ms: " + e);
+                retryAt.set(replica, now + RETRY_AFTER_MILLIS);
+            }
+        }
+        return primary.getConnection();
+    }
+
+    /**
+     * This method reports whether the reads of the request served by the current thread all go to the
+     * primary: there are no replicas, or ReadYourWritesFilter has pinned the request to the primary.
+     */
+    public boolean readsFromPrimary() {
+        return replicas.isEmpty() || Boolean.TRUE.equals(PRIMARY_ONLY.get());
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    public long getStickyMillis() {
+        return stickyMillis;
+    }
+
+    /*
+     * This function sends the reads of the request served by the current thread to the primary, or
+     * lets them go to replicas again.
+     */
+    static void readFromPrimary(boolean primaryOnly) {
+        if (primaryOnly) {
+            PRIMARY_ONLY.set(Boolean.TRUE);
+        } else {
+            PRIMARY_ONLY.remove();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package edu.calvin.cs262.cs262d;
 
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 
 /**
@@ -11,6 +13,12 @@ import java.sql.Timestamp;
  */
 public class Event {
 
+    // The states of an event, as the State column of the Events table derives them from its count:
+    // pending until the count reaches the threshold, then confirmed, and full at capacity.
+    public static final String PENDING = "pending";
+    public static final String CONFIRMED = "confirmed";
+    public static final String FULL = "full";
+
     private int id;
     private int userId;
     private String title;
@@ -57,6 +65,50 @@ public class Event {
         this.count = count;
     }
 
+    /*
+     * This function builds an Event from the current row of a ResultSet whose columns follow the
+     * Events table order (see Query), with the participant count in the eleventh column.
+     * The time it takes counts as mapping time for the current request's RequestTimer.
+     */
+    static Event fromResultSet(ResultSet resultSet) throws SQLException {
+        RequestTimer timer = RequestTimer.current();
+        if (timer == null) {
+            return mapRow(resultSet);
+        }
+        long start = System.nanoTime();
+        Event result = mapRow(resultSet);
+        timer.addMapping(System.nanoTime() - start);
+        return result;
+    }
+
+    private static Event mapRow(ResultSet resultSet) throws SQLException {
+        return new Event(
+                resultSet.getInt(1),        // id
+                resultSet.getInt(2),        // userID
+                resultSet.getString(3),     // title
+                resultSet.getString(4),     // description
+                resultSet.getTimestamp(5),  // time
+                resultSet.getString(6),     // location
+                resultSet.getFloat(7),      // cost
+                resultSet.getInt(8),        // threshold
+                resultSet.getInt(9),        // capacity
+                resultSet.getString(10),    // category
+                resultSet.getInt(11)        // count
+        );
+    }
+
+    /*
+     * This function returns this event as list views show it, without its description. An event
+     * that has no description is returned as it is; otherwise a copy is made, since events may be
+     * shared with the caches.
+     */
+    Event toSummary() {
+        if (description == null) {
+            return this;
+        }
+        return new Event(id, userId, title, null, time, location, cost, threshold, capacity, category, count);
+    }
+
     public int getId() {
         return id;
     }
@@ -140,4 +192,23 @@ public class Event {
     public int getCount() { 
         return count;
     }
+
+    /**
+     * This method returns the event's state, derived from its count as the State column is.
+     */
+    public String getState() {
+        return stateOf(count, threshold, capacity);
+    }
+
+    /*
+     * This function returns the state of an event with the given count, threshold and capacity.
+     * An event without a threshold (0) is confirmed once it has a participant, not before.
+     * It must agree with the expression of the State column (see V9__unjoined_events_pending.sql).
+     */
+    static String stateOf(int count, int threshold, int capacity) {
+        if (capacity > 0 && count >= capacity) {
+            return FULL;
+        }
+        return (count >= Math.max(threshold, 1)) ? CONFIRMED : PENDING;
+    }
 }
@@ -0,0 +1,24 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.List;
+
+/**
+ * This class is the request body of the batch event creation endpoint.
+ * Endpoints cannot take a bare list as a request body, so the events are wrapped in "items".
+ */
+public class EventBatch {
+
+    private List<Event> items;
+
+    public EventBatch() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public List<Event> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Event> items) {
+        this.items = items;
+    }
+}
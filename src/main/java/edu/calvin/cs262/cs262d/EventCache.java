@@ -0,0 +1,234 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements an in-process, read-through cache of Event objects for this instance.
+ * It holds up to maxSize events by ID, evicting the least recently used, plus a snapshot of
+ * the full time-ordered event list. Entries expire after ttlMillis, which also bounds how long
+ * this instance can serve an event that was changed through another App Engine instance.
+ * <p>
+ * EventResource updates the cache after each of its writes. The snapshot is kept in a map ordered
+ * by (Time, ID), so a write moves only its own event; the list handed to readers is rebuilt from
+ * it, without sorting, when it is first read after a write. A load that started before a write is not stored, so a slow read cannot put back a value
+ * the write just replaced.
+ * Cached events are shared between requests and must be treated as read-only.
+ */
+public class EventCache {
+
+    private static EventCache instance;
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    // Guarded by this.
+    private final LinkedHashMap<Integer, CachedEvent> entries;
+    private TreeMap<EventCursor, Event> allEvents;
+    private Map<Integer, EventCursor> allPositions;
+    private List<Event> allEventsList;
+    private long allEventsLoadedAt;
+    private long generation = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong listHitCount = new AtomicLong();
+    private final AtomicLong listMissCount = new AtomicLong();
+
+    /**
+     * This method returns the cache shared by this instance. Its size and time-to-live come from
+     * the eventconnect.cache.size and eventconnect.cache.ttlMillis system properties.
+     */
+    public static synchronized EventCache getInstance() {
+        if (instance == null) {
+            instance = new EventCache(
+                    Integer.getInteger("eventconnect.cache.size", 1000),
+                    Long.getLong("eventconnect.cache.ttlMillis", 10000)
+            );
+        }
+        return instance;
+    }
+
+    public EventCache(final int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Integer, CachedEvent>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedEvent> eldest) {
+                if (size() > EventCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * This method returns the cached event with the given ID, or null if it is not cached or has expired.
+     */
+    public synchronized Event get(int id) {
+        CachedEvent entry = entries.get(id);
+        if (entry != null && isExpired(entry.loadedAt)) {
+            entries.remove(id);
+            evictionCount.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.event;
+    }
+
+    /**
+     * This method returns the cached list of all events in time order, or null if it is not cached or has expired.
+     */
+    public synchronized List<Event> getAll() {
+        if (allEvents != null && isExpired(allEventsLoadedAt)) {
+            dropAll();
+            evictionCount.incrementAndGet();
+        }
+        if (allEvents == null) {
+            listMissCount.incrementAndGet();
+            return null;
+        }
+        listHitCount.incrementAndGet();
+        if (allEventsList == null) {
+            allEventsList = Collections.unmodifiableList(new ArrayList<Event>(allEvents.values()));
+        }
+        return allEventsList;
+    }
+
+    /**
+     * This method returns a stamp to take before loading from the database; pass it to
+     * putLoaded or putAllLoaded so that a load overtaken by a write is discarded.
+     */
+    public synchronized long startLoad() {
+        return generation;
+    }
+
+    /**
+     * This method caches an event read from the database, unless a write happened since the load started.
+     */
+    public synchronized void putLoaded(Event event, long stamp) {
+        if (event != null && stamp == generation) {
+            entries.put(event.getId(), new CachedEvent(event, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * This method caches the full event list read from the database, unless a write happened since the load started.
+     */
+    public synchronized void putAllLoaded(List<Event> events, long stamp) {
+        if (stamp == generation) {
+            allEvents = new TreeMap<EventCursor, Event>(EventCursor.POSITION);
+            allPositions = new HashMap<Integer, EventCursor>();
+            for (Event event : events) {
+                putInAll(event);
+            }
+            allEventsList = null;
+            allEventsLoadedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * This method records an event that was just created or modified, as read back after the write.
+     * The event also takes its (possibly new) place in the time-ordered list snapshot.
+     */
+    public synchronized void eventChanged(Event event) {
+        generation++;
+        entries.put(event.getId(), new CachedEvent(event, System.currentTimeMillis()));
+        if (allEvents != null) {
+            removeFromAll(event.getId());
+            putInAll(event);
+            allEventsList = null;
+        }
+    }
+
+    /**
+     * This method forgets the event with the given ID, which has been deleted.
+     */
+    public synchronized void eventRemoved(int id) {
+        generation++;
+        entries.remove(id);
+        if (allEvents != null && removeFromAll(id)) {
+            allEventsList = null;
+        }
+    }
+
+    /**
+     * This method drops the event with the given ID and the list snapshot, for writes that
+     * changed the event (such as its participant count) without reading it back.
+     */
+    public synchronized void invalidate(int id) {
+        generation++;
+        entries.remove(id);
+        dropAll();
+    }
+
+    /**
+     * This method returns the cache's size and hit/miss/eviction counters.
+     */
+    public synchronized CacheStats getStats() {
+        return new CacheStats(
+                maxSize,
+                entries.size(),
+                allEvents != null,
+                hitCount.get(),
+                missCount.get(),
+                listHitCount.get(),
+                listMissCount.get(),
+                evictionCount.get()
+        );
+    }
+
+    /*
+     * This function adds an event to the snapshot of all events, in its (Time, ID) place.
+     */
+    private void putInAll(Event event) {
+        EventCursor position = new EventCursor(event.getTime(), event.getId());
+        allPositions.put(event.getId(), position);
+        allEvents.put(position, event);
+    }
+
+    /*
+     * This function removes the event with the given ID from the snapshot of all events, and
+     * returns whether it was there.
+     */
+    private boolean removeFromAll(int id) {
+        EventCursor position = allPositions.remove(id);
+        return position != null && allEvents.remove(position) != null;
+    }
+
+    private void dropAll() {
+        allEvents = null;
+        allPositions = null;
+        allEventsList = null;
+    }
+
+    private boolean isExpired(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt > ttlMillis;
+    }
+
+    /*
+     * A cached event and the time it was read from the database.
+     */
+    private static class CachedEvent {
+        private final Event event;
+        private final long loadedAt;
+
+        CachedEvent(Event event, long loadedAt) {
+            this.event = event;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
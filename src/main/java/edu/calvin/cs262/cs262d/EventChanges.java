@@ -0,0 +1,48 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the changes to the events since a client's watermark: the events that were
+ * created or modified, the new counts of events whose participant count is all that changed, and
+ * the IDs of deleted events. The client passes since back to get the next changes.
+ * If resync is set, the changes are not available and the client should fetch every event again.
+ */
+public class EventChanges {
+
+    private List<Event> events = new ArrayList<Event>();
+    private List<EventCount> counts = new ArrayList<EventCount>();
+    private List<Integer> deleted = new ArrayList<Integer>();
+    private long since;
+    private boolean resync;
+
+    public EventChanges() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public EventChanges(long since, boolean resync) {
+        this.since = since;
+        this.resync = resync;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    public List<EventCount> getCounts() {
+        return counts;
+    }
+
+    public List<Integer> getDeleted() {
+        return deleted;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public boolean isResync() {
+        return resync;
+    }
+}
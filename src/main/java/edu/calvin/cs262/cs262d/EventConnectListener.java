@@ -0,0 +1,71 @@
+package edu.calvin.cs262.cs262d;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * This class sets up the per-instance resources shared by the endpoint classes when
+ * the web application starts, and releases them when the instance shuts down.
+ * Unless the eventconnect.schema.migrateOnStartup system property is false, it also brings
+ * the database schema up to date (see SchemaMigrator) before the instance serves requests.
+ * It then builds the SearchIndex, so the first search does not have to wait for it.
+ */
+public class EventConnectListener implements ServletContextListener {
+
+    private static final Logger LOGGER = Logger.getLogger(EventConnectListener.class.getName());
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        if (Boolean.parseBoolean(System.getProperty("eventconnect.schema.migrateOnStartup", "true"))) {
+            migrate(pool);
+        }
+        buildSearchIndex(pool);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        DataSourceRouter.shutdown();
+        ConnectionPool.shutdown();
+    }
+
+    /*
+     * This function applies any pending schema migrations and logs failed query plan checks.
+     * The endpoints depend on the migrated schema, so a failed migration stops the instance from starting.
+     */
+    private void migrate(ConnectionPool pool) {
+        Connection connection = null;
+        try {
+            connection = pool.getConnection();
+            SchemaMigrator.migrate(connection);
+            for (String problem : SchemaMigrator.verifyPlans(connection)) {
+                LOGGER.severe("query plan check failed: " + problem);
+            }
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("failed to migrate the database schema", e);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOGGER.warning("failed to return the migration connection: " + e);
+                }
+            }
+        }
+    }
+
+    /*
+     * This function builds the search index. A failure only delays it until the first search.
+     */
+    private void buildSearchIndex(ConnectionPool pool) {
+        try {
+            SearchIndex.getInstance().refresh(pool);
+        } catch (SQLException e) {
+            LOGGER.warning("failed to build the search index: " + e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class reports the participant count of an event whose other fields have not changed,
+ * and the state that count puts it in, as a compact entry of an EventChanges delta.
+ */
+public class EventCount {
+
+    private int id;
+    private int count;
+    private String state;
+
+    public EventCount() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public EventCount(int id, int count, String state) {
+        this.id = id;
+        this.count = count;
+        this.state = state;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String getState() {
+        return state;
+    }
+}
@@ -0,0 +1,85 @@
+package edu.calvin.cs262.cs262d;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * This class represents a position in the (Time, ID) ordering of the Events table.
+ * Paged listings hand it to clients as an opaque page token and resume after it,
+ * so each page is an index range scan rather than an OFFSET over earlier pages.
+ * <p>
+ * Events without a time sort after all timed events, as Postgres orders NULLs last.
+ */
+class EventCursor {
+
+    private static final String VERSION = "1";
+
+    // The (Time, ID) order of the Events table, with untimed events last.
+    static final Comparator<EventCursor> POSITION = Comparator
+            .comparing(EventCursor::getTime, Comparator.nullsLast(Comparator.<Timestamp>naturalOrder()))
+            .thenComparingInt(EventCursor::getId);
+
+    private final Timestamp time;
+    private final int id;
+
+    EventCursor(Timestamp time, int id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    /*
+     * This function returns the cursor just after the given event.
+     */
+    static EventCursor after(Event event) {
+        return new EventCursor(event.getTime(), event.getId());
+    }
+
+    Timestamp getTime() {
+        return time;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /*
+     * This function encodes the cursor as a URL-safe page token. The time keeps its
+     * nanoseconds so that no event with a sub-millisecond time is skipped or repeated.
+     */
+    String encode() {
+        String value = VERSION + ":" + id + ":"
+                + ((time == null) ? "" : Math.floorDiv(time.getTime(), 1000) + "." + time.getNanos());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * This function decodes a page token produced by encode().
+     * It throws IllegalArgumentException if the token is malformed.
+     */
+    static EventCursor decode(String token) {
+        String value;
+        try {
+            value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed page token", e);
+        }
+        String[] parts = value.split(":", -1);
+        if (parts.length != 3 || !parts[0].equals(VERSION)) {
+            throw new IllegalArgumentException("malformed page token");
+        }
+        try {
+            int id = Integer.parseInt(parts[1]);
+            Timestamp time = null;
+            if (!parts[2].isEmpty()) {
+                int dot = parts[2].indexOf('.');
+                time = new Timestamp(Long.parseLong(parts[2].substring(0, dot)) * 1000);
+                time.setNanos(Integer.parseInt(parts[2].substring(dot + 1)));
+            }
+            return new EventCursor(time, id);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("malformed page token", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package edu.calvin.cs262.cs262d;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.google.api.client.util.DateTime;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class writes a list of events as JSON in the shape Endpoints gives a CollectionResponse of
+ * Events: {"items": [...], "nextPageToken": ...}, with the same field names and formats, and with
+ * null fields left out. Summaries leave out descriptions too. Each event is written as soon as it is
+ * given, either as an Event or straight from a result set row, so a list is never held as both Events
+ * and JSON; the output stream still holds all of it if, as on App Engine standard, the response is
+ * buffered.
+ * <p>
+ * The field names are encoded once, when the class is loaded, rather than found by reflection and
+ * encoded again for every event.
+ */
+public class EventJsonWriter implements Closeable {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final SerializableString ITEMS = new SerializedString("items");
+    private static final SerializableString NEXT_PAGE_TOKEN = new SerializedString("nextPageToken");
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString USER_ID = new SerializedString("userId");
+    private static final SerializableString TITLE = new SerializedString("title");
+    private static final SerializableString DESCRIPTION = new SerializedString("description");
+    private static final SerializableString TIME = new SerializedString("time");
+    private static final SerializableString LOCATION = new SerializedString("location");
+    private static final SerializableString COST = new SerializedString("cost");
+    private static final SerializableString THRESHOLD = new SerializedString("threshold");
+    private static final SerializableString CAPACITY = new SerializedString("capacity");
+    private static final SerializableString CATEGORY = new SerializedString("category");
+    private static final SerializableString COUNT = new SerializedString("count");
+    private static final SerializableString STATE = new SerializedString("state");
+
+    private final JsonGenerator generator;
+    private final boolean summary;
+
+    /**
+     * This constructor starts the list on the given stream, which close() does not close.
+     * If summary is set, descriptions are left out.
+     */
+    public EventJsonWriter(OutputStream out, boolean summary) throws IOException {
+        this.summary = summary;
+        generator = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        generator.writeFieldName(ITEMS);
+        generator.writeStartArray();
+    }
+
+    /**
+     * This method writes one event.
+     */
+    public void write(Event event) throws IOException {
+        writeEvent(event.getId(), event.getUserId(), event.getTitle(), event.getDescription(), event.getTime(),
+                event.getLocation(), event.getCost(), event.getThreshold(), event.getCapacity(),
+                event.getCategory(), event.getCount());
+    }
+
+    /**
+     * This method writes the event in the current row of a result set, whose columns are in
+     * Event.fromResultSet order, without building an Event.
+     */
+    public void writeRow(ResultSet resultSet) throws SQLException, IOException {
+        writeEvent(
+                resultSet.getInt(1),        // id
+                resultSet.getInt(2),        // userID
+                resultSet.getString(3),     // title
+                resultSet.getString(4),     // description
+                resultSet.getTimestamp(5),  // time
+                resultSet.getString(6),     // location
+                resultSet.getFloat(7),      // cost
+                resultSet.getInt(8),        // threshold
+                resultSet.getInt(9),        // capacity
+                resultSet.getString(10),    // category
+                resultSet.getInt(11)        // count
+        );
+    }
+
+    /**
+     * This method ends the list, with the given page token unless it is null, and flushes it.
+     */
+    public void finish(String nextPageToken) throws IOException {
+        generator.writeEndArray();
+        if (nextPageToken != null) {
+            generator.writeFieldName(NEXT_PAGE_TOKEN);
+            generator.writeString(nextPageToken);
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+
+    /*
+     * This function writes one event object. Times are formatted as Endpoints formats dates.
+     */
+    private void writeEvent(int id, int userId, String title, String description, Timestamp time, String location,
+                            float cost, int threshold, int capacity, String category, int count) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(ID);
+        generator.writeNumber(id);
+        generator.writeFieldName(USER_ID);
+        generator.writeNumber(userId);
+        writeStringField(TITLE, title);
+        if (!summary) {
+            writeStringField(DESCRIPTION, description);
+        }
+        if (time != null) {
+            generator.writeFieldName(TIME);
+            generator.writeString(new DateTime(time).toStringRfc3339());
+        }
+        writeStringField(LOCATION, location);
+        generator.writeFieldName(COST);
+        generator.writeNumber(cost);
+        generator.writeFieldName(THRESHOLD);
+        generator.writeNumber(threshold);
+        generator.writeFieldName(CAPACITY);
+        generator.writeNumber(capacity);
+        writeStringField(CATEGORY, category);
+        generator.writeFieldName(COUNT);
+        generator.writeNumber(count);
+        generator.writeFieldName(STATE);
+        generator.writeString(Event.stateOf(count, threshold, capacity));
+        generator.writeEndObject();
+    }
+
+    private void writeStringField(SerializableString name, String value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeString(value);
+        }
+    }
+}
@@ -1,11 +1,22 @@
 package edu.calvin.cs262.cs262d;
 
 import com.google.api.server.spi.config.*;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ConflictException;
+import org.postgresql.PGStatement;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.google.api.server.spi.config.ApiMethod.HttpMethod.*;
 
@@ -39,58 +50,169 @@ import static com.google.api.server.spi.config.ApiMethod.HttpMethod.*;
 
 public class EventResource {
 
+    // Page sizes for getEvents; rows are fetched from the database FETCH_SIZE at a time.
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int FETCH_SIZE = 100;
+    private static final int MAX_ID_ATTEMPTS = 3;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    // The most items a batch endpoint accepts in one request.
+    private static final int MAX_BATCH_SIZE = 500;
+    // The most events getEventChanges reports before telling the client to fetch every event instead.
+    private static final int MAX_CHANGES = 1000;
+    // The most events one watchEvents request can watch.
+    private static final int MAX_WATCHED = 100;
+    // The values of the view parameter of the list endpoints.
+    static final String FULL_VIEW = "full";
+    static final String SUMMARY_VIEW = "summary";
+
+    private final ConnectionPool pool;
+    private final DataSourceRouter reads;
+    private final IdAllocator eventIds;
+    private final EventCache cache;
+    private final IdentityResolver identities;
+    private final UpcomingEvents upcoming;
+    private final CategoryIndex categories;
+    private final SearchIndex search;
+    private final EventVersions versions;
+    private final EventWatcher watcher;
+    private final JoinCommitter joins;
+    private final AdmissionController admission;
+    private final EventWrites writes;
+
+    public EventResource() {
+        this(ConnectionPool.getInstance(), DataSourceRouter.getInstance(), IdAllocator.forEvents(), EventCache.getInstance(),
+                IdentityResolver.getInstance(), UpcomingEvents.getInstance(), CategoryIndex.getInstance(),
+                SearchIndex.getInstance(), EventVersions.getInstance(), EventWatcher.getInstance(),
+                JoinCommitter.getInstance(), AdmissionController.getInstance());
+    }
+
+    public EventResource(ConnectionPool pool, DataSourceRouter reads, IdAllocator eventIds, EventCache cache,
+                         IdentityResolver identities, UpcomingEvents upcoming, CategoryIndex categories,
+                         SearchIndex search, EventVersions versions, EventWatcher watcher, JoinCommitter joins,
+                         AdmissionController admission) {
+        this.pool = pool;
+        this.reads = reads;
+        this.eventIds = eventIds;
+        this.cache = cache;
+        this.identities = identities;
+        this.upcoming = upcoming;
+        this.categories = categories;
+        this.search = search;
+        this.versions = versions;
+        this.watcher = watcher;
+        this.joins = joins;
+        this.admission = admission;
+        this.writes = new EventWrites(versions, watcher, admission, cache, upcoming, categories, search);
+    }
+
     /**
      * GET
-     * This method gets the full list of events from the Event table.
+     * This method gets events from the Event table, ordered by time.
+     * Without any parameters it returns every event, as earlier clients expect;
+     * this full list is served from the EventCache when it holds a current snapshot.
+     * Otherwise it returns one page of at most limit events (capped at MAX_PAGE_SIZE) at a time,
+     * and a nextPageToken that resumes after the page's last event, if there may be more events.
+     * Without from or to, the pages hold every event in (Time, ID) order, past and untimed events
+     * included, with the untimed events last. With from or to, they hold only the events with a time
+     * in the window [from, to), from now on if from is not given.
+     * Pass the same from, to, category and state with each page. Windows of the near future are served from
+     * this instance's UpcomingEvents index, and the pages of a category are looked up in its CategoryIndex.
+     * With state, only the events in that state are returned (pending, confirmed or full; see
+     * Event.getState), read through an index of the State column that joins and unjoins keep up to
+     * date; a state cannot be combined with a category.
+     * With view=summary the events are returned without their descriptions, which list views do not
+     * show, and pages read from the database do not read them either. App Engine gzips the response
+     * for clients that send Accept-Encoding: gzip and a User-Agent containing "gzip".
      *
+     * @param limit the maximum number of events to return (optional)
+     * @param pageToken the nextPageToken of the previous page (optional)
+     * @param from the earliest event time to return (optional; defaults to now if to is given,
+     *      and otherwise to every event)
+     * @param to the time before which returned events start (optional, defaults to no limit)
+     * @param category the category of the events to return (optional, defaults to every category)
+     * @param state the state of the events to return (optional, defaults to every state)
+     * @param view full or summary (optional, defaults to full)
      * @return JSON-formatted list of event records (based on a root JSON tag of "items")
      * @throws SQLException
+     * @throws BadRequestException if the page token, the state or the view is malformed,
+     *      or a state is given with a category
      */
     @ApiMethod(path = "events", httpMethod = GET)
-    public List<Event> getEvents() throws SQLException {
-        Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        List<Event> result = new ArrayList<Event>();
-        try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = selectEvents(statement);
-            while (resultSet.next()) {
-                Event e = new Event(
-                        resultSet.getInt(1),        // id
-                        resultSet.getInt(2),        // userID
-                        resultSet.getString(3),     // title
-                        resultSet.getString(4),     // description
-                        resultSet.getTimestamp(5),  // time
-                        resultSet.getString(6),     // location
-                        resultSet.getFloat(7),      // cost
-                        resultSet.getInt(8),        // threshold
-                        resultSet.getInt(9),        // capacity
-                        resultSet.getString(10),    // category
-                        resultSet.getInt(11)        // count
-                );
-                result.add(e);
+    public CollectionResponse<Event> getEvents(@Nullable @Named("limit") Integer limit,
+                                               @Nullable @Named("pageToken") String pageToken,
+                                               @Nullable @Named("from") Date from,
+                                               @Nullable @Named("to") Date to,
+                                               @Nullable @Named("category") String category,
+                                               @Nullable @Named("state") String state,
+                                               @Nullable @Named("view") String view)
+            throws SQLException, BadRequestException {
+        boolean summary = isSummaryView(view);
+        checkState(state, category);
+        if (limit == null && pageToken == null && from == null && to == null && category == null
+                && state == null) {
+            List<Event> all = getAllEvents();
+            return CollectionResponse.<Event>builder().setItems(summary ? toSummaries(all) : all).build();
+        }
+        int pageSize = (limit == null) ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        boolean windowed = from != null || to != null;
+        Timestamp start;
+        if (from != null) {
+            start = new Timestamp(from.getTime());
+        } else if (windowed) {
+            start = new Timestamp(System.currentTimeMillis());
+        } else {
+            start = new Timestamp(PGStatement.DATE_NEGATIVE_INFINITY);
+        }
+        EventCursor position = new EventCursor(start, Integer.MIN_VALUE);
+        if (pageToken != null) {
+            EventCursor cursor;
+            try {
+                cursor = EventCursor.decode(pageToken);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
             }
-        } catch (SQLException e) {
-            throw (e);
-        } finally {
-            if (resultSet != null) {
-                resultSet.close();
+            if (cursor.getTime() == null && windowed) {
+                // Only untimed events follow, and time windows leave those out.
+                return CollectionResponse.<Event>builder().setItems(new ArrayList<Event>()).build();
             }
-            if (statement != null) {
-                statement.close();
+            EventCursor resume = new EventCursor(cursor.getTime(), cursor.getId() + 1);
+            if (EventCursor.POSITION.compare(resume, position) > 0) {
+                position = resume;
             }
-            if (connection != null) {
-                connection.close();
+        }
+        Timestamp end = (to == null) ? null : new Timestamp(to.getTime());
+        // Ask for one extra event to learn whether another page follows.
+        List<Event> result = new ArrayList<Event>();
+        if (position.getTime() != null) {
+            if (state != null) {
+                result.addAll(getStateWindow(state, position, end, pageSize + 1, summary));
+            } else if (category != null) {
+                result.addAll(getCategoryWindow(category, position, end, pageSize + 1, summary));
+            } else {
+                result.addAll(getWindow(position, end, pageSize + 1, summary));
             }
         }
-        return result;
+        if (!windowed && result.size() <= pageSize) {
+            // The untimed events follow the timed ones.
+            int firstId = (position.getTime() == null) ? position.getId() : Integer.MIN_VALUE;
+            result.addAll(getUntimed(state, category, firstId, pageSize + 1 - result.size(), summary));
+        }
+        String nextPageToken = null;
+        if (result.size() > pageSize) {
+            result = new ArrayList<Event>(result.subList(0, pageSize));
+            nextPageToken = EventCursor.after(result.get(pageSize - 1)).encode();
+        }
+        if (summary) {
+            result = toSummaries(result);
+        }
+        return CollectionResponse.<Event>builder().setItems(result).setNextPageToken(nextPageToken).build();
     }
 
     /**
      * GET
      * This method gets the event from the Event table with the given ID.
+     * Recently read events are served from this instance's EventCache.
      *
      * @param id the ID of the requested event
      * @return if the event exists, a JSON-formatted event record, otherwise an invalid/empty JSON entity
@@ -98,45 +220,215 @@ public class EventResource {
      */
     @ApiMethod(path = "event/{id}", httpMethod = GET)
     public Event getEvent(@Named("id") int id) throws SQLException {
+        Event result = cache.get(id);
+        if (result != null) {
+            return result;
+        }
+        long stamp = cache.startLoad();
         Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        Event result = null;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = selectEvent(id, statement);
-            if (resultSet.next()) {
-                result = new Event(
-                        resultSet.getInt(1),        // id
-                        resultSet.getInt(2),        // userID
-                        resultSet.getString(3),     // title
-                        resultSet.getString(4),     // description
-                        resultSet.getTimestamp(5),  // time
-                        resultSet.getString(6),     // location
-                        resultSet.getFloat(7),      // cost
-                        resultSet.getInt(8),        // threshold
-                        resultSet.getInt(9),        // capacity
-                        resultSet.getString(10),    // category
-                        resultSet.getInt(11)        // count
-                );
+            connection = pool.getConnection();
+            result = getEvent(id, connection);
+            cache.putLoaded(result, stamp);
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * GET
+     * This method counts the events in each category, in category order, leaving out events
+     * without a category. The counts are served from this instance's CategoryIndex.
+     *
+     * @return JSON-formatted list of category counts
+     * @throws SQLException
+     */
+    @ApiMethod(path = "events/categories", httpMethod = GET)
+    public List<CategoryCount> getCategoryCounts() throws SQLException {
+        List<CategoryCount> result = categories.counts();
+        if (result != null) {
+            return result;
+        }
+        Connection connection = null;
+        try {
+            connection = pool.getConnection();
+            categories.refresh(connection);
+            result = categories.counts();
+            if (result == null) {
+                result = selectCategoryCounts(connection);
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (resultSet != null) {
-                resultSet.close();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * GET
+     * This method searches the title, location and description of every event for the words
+     * of the query, and returns the events containing all of them, best match first, one page of
+     * at most limit events (capped at MAX_PAGE_SIZE) at a time, and a nextPageToken for the next
+     * page if there may be more. Searches are answered from this instance's SearchIndex, and each
+     * page resumes after the score and ID of the last event of the previous one.
+     *
+     * @param query the words to search for
+     * @param limit the maximum number of events to return (optional)
+     * @param pageToken the nextPageToken of the previous page (optional)
+     * @return JSON-formatted list of event records (based on a root JSON tag of "items")
+     * @throws SQLException
+     * @throws BadRequestException if the page token is malformed
+     */
+    @ApiMethod(path = "events/search", httpMethod = GET)
+    public CollectionResponse<Event> searchEvents(@Named("q") String query,
+                                                  @Nullable @Named("limit") Integer limit,
+                                                  @Nullable @Named("pageToken") String pageToken)
+            throws SQLException, BadRequestException {
+        int pageSize = (limit == null) ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        SearchCursor after = null;
+        if (pageToken != null) {
+            try {
+                after = SearchCursor.decode(pageToken);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
             }
-            if (statement != null) {
-                statement.close();
+        }
+        search.refresh(pool);
+        // Ask for one extra event to learn whether another page follows.
+        List<SearchCursor> hits = search.search(query, after, pageSize + 1);
+        String nextPageToken = null;
+        if (hits.size() > pageSize) {
+            hits = hits.subList(0, pageSize);
+            nextPageToken = hits.get(pageSize - 1).encode();
+        }
+        List<Integer> ids = new ArrayList<Integer>();
+        for (SearchCursor hit : hits) {
+            ids.add(hit.getId());
+        }
+        List<Event> result = new ArrayList<Event>();
+        if (ids.isEmpty()) {
+            return CollectionResponse.<Event>builder().setItems(result).build();
+        }
+        Connection connection = null;
+        try {
+            connection = reads.getReadConnection();
+            Map<Integer, Event> events = selectEventsById(ids, connection);
+            for (int id : ids) {
+                // An event deleted through another instance may still be indexed here.
+                if (events.containsKey(id)) {
+                    result.add(events.get(id));
+                }
             }
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
             if (connection != null) {
                 connection.close();
             }
         }
+        return CollectionResponse.<Event>builder().setItems(result).setNextPageToken(nextPageToken).build();
+    }
+
+    /**
+     * GET
+     * This method returns the changes to the events since the given watermark, from the change log
+     * that the EventsChanged trigger keeps of every write: the events created or modified, the new
+     * participant counts of events where only the count changed, and the IDs of deleted events.
+     * Pass the returned since back to get the next changes. Without a watermark it only returns one;
+     * take it before fetching every event, and the first changes may repeat some of those events.
+     * If the watermark is older than the compacted part of the log, or more than MAX_CHANGES events
+     * changed, resync is set instead and the client should fetch every event again.
+     *
+     * @param since the since of the previous changes (optional)
+     * @return JSON-formatted changes
+     * @throws SQLException
+     */
+    @ApiMethod(path = "events/changes", httpMethod = GET)
+    public EventChanges getEventChanges(@Nullable @Named("since") Long since) throws SQLException {
+        Connection connection = null;
+        EventChanges result;
+        try {
+            connection = pool.getConnection();
+            // Read the watermark first: every change below it has committed, so the query below sees it.
+            long until = selectLong(Query.SELECT_CHANGE_WATERMARK.prepare(connection));
+            if (since == null || since >= until) {
+                return new EventChanges((since == null) ? until : since, false);
+            }
+            if (since < selectLong(Query.SELECT_CHANGE_HORIZON.prepare(connection))) {
+                return new EventChanges(until, true);
+            }
+            Map<Integer, Character> kinds = selectChangeKinds(since, until, null, MAX_CHANGES + 1, connection);
+            if (kinds.size() > MAX_CHANGES) {
+                return new EventChanges(until, true);
+            }
+            result = readChanges(kinds, until, connection);
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
         return result;
     }
 
+    /**
+     * GET
+     * This method waits for changes to the events with the given IDs since the given watermark, and
+     * returns them as getEventChanges does, as soon as there are any or after the EventWatcher's
+     * waitMillis without any. Clients long-poll it, passing the returned since back each time.
+     * Changes made through this instance are returned as soon as they commit, and other changes
+     * once the EventWatcher next reads the change log. Several changes to an event are coalesced.
+     * If too many requests are already waiting, it returns at once.
+     *
+     * @param ids the IDs of the events to watch (at most MAX_WATCHED)
+     * @param since the since of the previous changes, or of getEventChanges (optional)
+     * @return JSON-formatted changes
+     * @throws SQLException
+     * @throws BadRequestException if too few or too many IDs are given
+     */
+    @ApiMethod(path = "events/watch", httpMethod = GET)
+    public EventChanges watchEvents(@Named("id") List<Integer> ids, @Nullable @Named("since") Long since)
+            throws SQLException, BadRequestException {
+        if (ids == null || ids.isEmpty() || ids.size() > MAX_WATCHED) {
+            throw new BadRequestException("watch between 1 and " + MAX_WATCHED + " events");
+        }
+        if (since == null) {
+            return getEventChanges(null);
+        }
+        boolean waiting = watcher.enter();
+        long deadline = System.currentTimeMillis() + (waiting ? watcher.getWaitMillis() : 0);
+        try {
+            while (true) {
+                if (watcher.startTail()) {
+                    tailChanges();
+                }
+                EventWatcher.Changes changes = watcher.changes(ids, since);
+                if (changes == null) {
+                    // Older than the log reads the watcher holds.
+                    return getWatchedChanges(ids, since);
+                }
+                if (!changes.getKinds().isEmpty() || System.currentTimeMillis() >= deadline) {
+                    return getChanges(changes.getKinds(), Math.max(since, changes.getUntil()));
+                }
+                watcher.await(changes.getUntil(), deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new EventChanges(since, false);
+        } finally {
+            if (waiting) {
+                watcher.leave();
+            }
+        }
+    }
+
     /**
      * POST
      * This method creates an instance of Event with a new, unique ID
@@ -144,9 +436,9 @@ public class EventResource {
      * the same POST several times creates multiple objects with unique IDs but
      * otherwise having the same field values.
      *
-     * The method creates a new, unique ID by querying the Event table for the
-     * largest ID and adding 1 to that. Using a DB sequence would be a better solution.
-     * This method creates an instance of Event with a new, unique ID.
+     * The new ID comes from the instance's IdAllocator, which reserves blocks of IDs
+     * from the EventIDs sequence, so no query is needed to choose it. The insert returns
+     * the new row, so the event is not read back.
      *
      * @param event a JSON representation of the event to be created
      * @param token username:password encoded in base64
@@ -156,114 +448,402 @@ public class EventResource {
     @ApiMethod(path="event/{token}", httpMethod=POST)
     public Event postEvent(Event event, @Named("token") String token) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        int eventID;
-        // get the userID from the token
-        String username = decodeBase64(token).split(":")[0];
-        int userID = getUserId(username);
-        try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery("SELECT MAX(ID) FROM Events");
-            if (resultSet.next()) {
-                eventID = resultSet.getInt(1) + 1;
-                event.setId(eventID);
-                event.setUserId(userID);
-            } else {
-                throw new RuntimeException("failed to find unique ID...");
-            }
-            insertEvent(event, statement);
+        Event result = null;
+        try {
+            connection = pool.getConnection();
+            event.setUserId(identities.resolve(token, connection));
+            result = insertNewEvent(event, connection);
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (resultSet != null) { resultSet.close(); }
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
-        return getEvent(eventID);
+        eventWritten(result.getId(), result);
+        return result;
     }
 
     /**
      * PUT
      * This method joins a user from the Users table with an event in the Events table
-     * to indicate the user has joined the event
+     * to indicate the user has joined the event.
+     * The join, its capacity check and the participant count change happen in a single
+     * statement, so concurrent joins can neither join a user twice nor overfill the event.
+     * Joining an event the user has already joined changes nothing.
+     * Joins to an event this instance has recently seen full are refused by the AdmissionController
+     * without locking it, after checking only that the user has not already joined it; waitlistEvent
+     * queues for a seat instead.
+     * With group commit on, the join is committed together with concurrent ones by the JoinCommitter.
      * @param eventID the ID of the event to join
      * @param token username:password encoded in base64
      * @return event in JSON format with updated count
      * @throws SQLException
+     * @throws ConflictException if the event is already at capacity
      */
     @ApiMethod(path="event/{eventID}/join/{token}", httpMethod=PUT)
-    public Event joinEvent(@Named("eventID") int eventID, @Named("token") String token) throws SQLException {
+    public Event joinEvent(@Named("eventID") int eventID, @Named("token") String token)
+            throws SQLException, ConflictException {
+        boolean admitted = admission.tryAdmit(eventID);
+        if (!admitted && !hasJoined(eventID, token)) {
+            throw new ConflictException("event " + eventID + " is full");
+        }
+        Event result;
+        try {
+            result = join(eventID, token);
+        } catch (ConflictException e) {
+            admission.eventFull(eventID);
+            throw (e);
+        } catch (SQLException | RuntimeException e) {
+            if (admitted) {
+                admission.release(eventID);
+            }
+            throw (e);
+        }
+        eventWritten(eventID, result);
+        return result;
+    }
+
+    /**
+     * PUT
+     * This method unjoins a user from the Users table with an event in the Events table
+     * to indicate the user has left the event.
+     * As with joinEvent, the unjoin and the participant count change are a single statement,
+     * committed together with concurrent joins and unjoins when group commit is on. The statement
+     * gives the freed seat to the first user on the event's waitlist, and takes the user off the
+     * waitlist if they are on it.
+     * @param eventID the ID of the event to leave
+     * @param token username:password encoded in base64
+     * @return event in JSON format with updated count
+     * @throws SQLException
+     */
+    @ApiMethod(path="event/{eventID}/unjoin/{token}", httpMethod=PUT)
+    public Event unjoinEvent(@Named("eventID") int eventID, @Named("token") String token) throws SQLException {
+        if (joins.isEnabled()) {
+            Event result = joins.unjoin(eventID, token);
+            eventWritten(eventID, result);
+            return result;
+        }
         Connection connection = null;
-        Statement statement = null;
         ResultSet resultSet = null;
-        // get the userID from the token
-        String username = decodeBase64(token).split(":")[0];
-        int userID = getUserId(username);
-        try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery(
-                    String.format("SELECT * FROM JoinedEvents " +
-                            "WHERE EventID=%d AND UserID=%d;",
-                            eventID, userID)
-            );
-            if (!resultSet.next()) {
-                statement.executeUpdate(
-                        String.format("INSERT INTO JoinedEvents VALUES (%d,%d);",
-                                eventID, userID)
-                );
+        Event result = null;
+        try {
+            connection = pool.getConnection();
+            int userID = identities.resolve(token, connection);
+            PreparedStatement statement = Query.UNJOIN_EVENT.prepare(connection);
+            statement.setInt(1, eventID);
+            statement.setInt(2, userID);
+            statement.setInt(3, eventID);
+            statement.setInt(4, userID);
+            statement.setInt(5, eventID);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                result = Event.fromResultSet(resultSet);
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
             if (resultSet != null) { resultSet.close(); }
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
-        return getEvent(eventID);
+        eventWritten(eventID, result);
+        return result;
     }
 
     /**
      * PUT
-     * This method unjoins a user from the Users table with an event in the Events table
-     * to indicate the user has joined the event
-     * @param eventID the ID of the event to join
+     * This method joins a user to an event as joinEvent does or, if the event is full, adds them to
+     * the event's waitlist. Each seat freed later, by a user leaving the event with unjoinEvent or
+     * being deleted, or by putEvent raising its capacity, goes to the user who has waited longest;
+     * waiting users leave the waitlist with unjoinEvent too.
+     * Unlike joinEvent, it always asks the database, so a seat this instance does not know has been
+     * freed is still taken.
+     * @param eventID the ID of the event to join or wait for
      * @param token username:password encoded in base64
-     * @return event in JSON format with updated count
+     * @return the outcome: joined (or already joined), waitlisted (or already waiting), or notFound
      * @throws SQLException
      */
-    @ApiMethod(path="event/{eventID}/unjoin/{token}", httpMethod=PUT)
-    public Event unjoinEvent(@Named("eventID") int eventID, @Named("token") String token) throws SQLException {
+    @ApiMethod(path="event/{eventID}/waitlist/{token}", httpMethod=PUT)
+    public BatchResult waitlistEvent(@Named("eventID") int eventID, @Named("token") String token)
+            throws SQLException {
         Connection connection = null;
-        Statement statement = null;
         ResultSet resultSet = null;
-        // get the userID from the token
-        String username = decodeBase64(token).split(":")[0];
-        int userID = getUserId(username);
-        try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery(
-                    String.format("SELECT * FROM JoinedEvents " +
-                                    "WHERE EventID=%d AND UserID=%d;",
-                            eventID, userID)
-            );
-            if (resultSet.next()) {
-                statement.executeUpdate(
-                        String.format("DELETE FROM JoinedEvents WHERE UserID=%d AND EventID=%d;",
-                                userID, eventID)
-                );
+        Event joined = null;
+        String status = null;
+        try {
+            connection = pool.getConnection();
+            int userID = identities.resolve(token, connection);
+            // A seat freed between the join and the insert into the waitlist lets a second attempt join.
+            for (int attempt = 0; attempt < 2 && status == null; attempt++) {
+                resultSet = executeJoin(eventID, userID, connection);
+                if (!resultSet.next()) {
+                    status = BatchResult.NOT_FOUND;
+                } else if (!resultSet.getBoolean("Full")) {
+                    joined = Event.fromResultSet(resultSet);
+                    status = BatchResult.JOINED;
+                } else {
+                    resultSet.close();
+                    PreparedStatement statement = Query.WAITLIST_USER.prepare(connection);
+                    statement.setInt(1, userID);
+                    statement.setInt(2, eventID);
+                    statement.setInt(3, eventID);
+                    statement.setInt(4, userID);
+                    resultSet = statement.executeQuery();
+                    if (resultSet.next()) {
+                        status = BatchResult.WAITLISTED;
+                    }
+                }
+                resultSet.close();
+                resultSet = null;
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
             if (resultSet != null) { resultSet.close(); }
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
-        return getEvent(eventID);
+        if (joined != null) {
+            eventWritten(eventID, joined);
+        } else if (BatchResult.WAITLISTED.equals(status)) {
+            admission.eventFull(eventID);
+        }
+        return new BatchResult(eventID, (status == null) ? BatchResult.FULL : status);
+    }
+
+    /**
+     * POST
+     * This method creates a batch of events owned by the user in the token, in one transaction.
+     * Each event gets a new ID from the IdAllocator, as in postEvent, and the inserts are sent
+     * to the database as a single JDBC batch.
+     *
+     * @param batch the events to be created, as a JSON list under "items"
+     * @param token username:password encoded in base64
+     * @return one result per event, in request order, with the event's new ID
+     * @throws SQLException
+     * @throws BadRequestException if the batch is empty or larger than MAX_BATCH_SIZE
+     */
+    @ApiMethod(path = "events/{token}", httpMethod = POST)
+    public List<BatchResult> postEvents(EventBatch batch, @Named("token") String token)
+            throws SQLException, BadRequestException {
+        List<Event> events = (batch == null) ? null : batch.getItems();
+        checkBatch(events);
+        Connection connection = null;
+        List<BatchResult> result = new ArrayList<BatchResult>();
+        Map<Integer, Event> created = null;
+        try {
+            connection = pool.getConnection();
+            int userID = identities.resolve(token, connection);
+            connection.setAutoCommit(false);
+            PreparedStatement statement = Query.INSERT_EVENT.prepare(connection);
+            for (Event event : events) {
+                event.setUserId(userID);
+                event.setId(eventIds.nextId(connection));
+                statement.setInt(1, event.getId());
+                statement.setInt(2, userID);
+                setEventFields(statement, 3, event);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            List<Integer> eventIDs = new ArrayList<Integer>();
+            for (int i = 0; i < events.size(); i++) {
+                // As in postEvent, an ID already taken by a PUT is skipped.
+                int eventID = (counts[i] == 0) ? insertNewEvent(events.get(i), connection).getId()
+                        : events.get(i).getId();
+                eventIDs.add(eventID);
+                result.add(new BatchResult(eventID, BatchResult.CREATED));
+            }
+            created = selectEventsById(eventIDs, connection);
+            connection.commit();
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+        for (Event event : created.values()) {
+            eventWritten(event.getId(), event);
+        }
+        return result;
+    }
+
+    /**
+     * PUT
+     * This method joins the user in the token to each of the given events, in one transaction.
+     * The joins are sent as a single JDBC batch and follow the rules of joinEvent, except that
+     * a full or missing event is reported in its result instead of failing the request.
+     *
+     * @param batch the IDs of the events to join, as a JSON list under "ids"
+     * @param token username:password encoded in base64
+     * @return one result per event ID, in request order: joined, alreadyJoined, full or notFound
+     * @throws SQLException
+     * @throws BadRequestException if the batch is empty or larger than MAX_BATCH_SIZE
+     */
+    @ApiMethod(path = "events/join/{token}", httpMethod = PUT)
+    public List<BatchResult> joinEvents(IdBatch batch, @Named("token") String token)
+            throws SQLException, BadRequestException {
+        List<Integer> eventIDs = (batch == null) ? null : batch.getIds();
+        checkBatch(eventIDs);
+        Connection connection = null;
+        List<BatchResult> result = new ArrayList<BatchResult>();
+        Map<Integer, Event> events = null;
+        try {
+            connection = pool.getConnection();
+            int userID = identities.resolve(token, connection);
+            connection.setAutoCommit(false);
+            PreparedStatement statement = Query.JOIN_EVENT_BATCHED.prepare(connection);
+            for (int eventID : eventIDs) {
+                statement.setInt(1, eventID);
+                statement.setInt(2, userID);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            events = selectEventsById(eventIDs, connection);
+            statement = Query.SELECT_JOINED_EVENT_IDS.prepare(connection);
+            statement.setInt(1, userID);
+            statement.setArray(2, idArray(eventIDs, connection));
+            Set<Integer> joined = selectIds(statement);
+            for (int i = 0; i < eventIDs.size(); i++) {
+                int eventID = eventIDs.get(i);
+                String status;
+                if (counts[i] > 0) {
+                    status = BatchResult.JOINED;
+                } else if (!events.containsKey(eventID)) {
+                    status = BatchResult.NOT_FOUND;
+                } else if (joined.contains(eventID)) {
+                    status = BatchResult.ALREADY_JOINED;
+                } else {
+                    status = BatchResult.FULL;
+                }
+                result.add(new BatchResult(eventID, status));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+        for (Event event : events.values()) {
+            eventWritten(event.getId(), event);
+        }
+        return result;
+    }
+
+    /**
+     * PUT
+     * This method removes the user in the token from each of the given events, in one transaction.
+     *
+     * @param batch the IDs of the events to leave, as a JSON list under "ids"
+     * @param token username:password encoded in base64
+     * @return one result per event ID, in request order: left, notJoined or notFound
+     * @throws SQLException
+     * @throws BadRequestException if the batch is empty or larger than MAX_BATCH_SIZE
+     */
+    @ApiMethod(path = "events/unjoin/{token}", httpMethod = PUT)
+    public List<BatchResult> unjoinEvents(IdBatch batch, @Named("token") String token)
+            throws SQLException, BadRequestException {
+        List<Integer> eventIDs = (batch == null) ? null : batch.getIds();
+        checkBatch(eventIDs);
+        Connection connection = null;
+        List<BatchResult> result = new ArrayList<BatchResult>();
+        Map<Integer, Event> events = null;
+        try {
+            connection = pool.getConnection();
+            int userID = identities.resolve(token, connection);
+            connection.setAutoCommit(false);
+            PreparedStatement statement = Query.UNJOIN_EVENT_BATCHED.prepare(connection);
+            for (int eventID : eventIDs) {
+                statement.setInt(1, eventID);
+                statement.setInt(2, userID);
+                statement.setInt(3, eventID);
+                statement.setInt(4, userID);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            events = selectEventsById(eventIDs, connection);
+            for (int i = 0; i < eventIDs.size(); i++) {
+                int eventID = eventIDs.get(i);
+                String status;
+                if (counts[i] > 0) {
+                    status = BatchResult.LEFT;
+                } else if (!events.containsKey(eventID)) {
+                    status = BatchResult.NOT_FOUND;
+                } else {
+                    status = BatchResult.NOT_JOINED;
+                }
+                result.add(new BatchResult(eventID, status));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+        for (Event event : events.values()) {
+            eventWritten(event.getId(), event);
+        }
+        return result;
+    }
+
+    /**
+     * PUT
+     * This method enrolls each of the given users in an event, in one transaction.
+     * The joins are sent as a single JDBC batch, in request order, until the event is full.
+     *
+     * @param batch the IDs of the users to enroll, as a JSON list under "ids"
+     * @param eventID the ID of the event
+     * @param token username:password encoded in base64, of a user allowed to edit the event
+     * @return one result per user ID, in request order: joined, alreadyJoined, full or notFound
+     * @throws SQLException
+     * @throws BadRequestException if the batch is empty or larger than MAX_BATCH_SIZE
+     */
+    @ApiMethod(path = "event/{eventID}/enroll/{token}", httpMethod = PUT)
+    public List<BatchResult> enrollUsers(IdBatch batch, @Named("eventID") int eventID, @Named("token") String token)
+            throws SQLException, BadRequestException {
+        List<Integer> userIDs = (batch == null) ? null : batch.getIds();
+        checkBatch(userIDs);
+        Connection connection = null;
+        List<BatchResult> result = new ArrayList<BatchResult>();
+        Event event = null;
+        try {
+            connection = pool.getConnection();
+            if (!isAuthorized(token, eventID)) {
+                return result;
+            }
+            connection.setAutoCommit(false);
+            PreparedStatement statement = Query.JOIN_EVENT_BATCHED.prepare(connection);
+            for (int userID : userIDs) {
+                statement.setInt(1, eventID);
+                statement.setInt(2, userID);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            event = getEvent(eventID, connection);
+            statement = Query.SELECT_USER_IDS.prepare(connection);
+            statement.setArray(1, idArray(userIDs, connection));
+            Set<Integer> users = selectIds(statement);
+            statement = Query.SELECT_JOINED_USER_IDS.prepare(connection);
+            statement.setInt(1, eventID);
+            statement.setArray(2, idArray(userIDs, connection));
+            Set<Integer> joined = selectIds(statement);
+            for (int i = 0; i < userIDs.size(); i++) {
+                int userID = userIDs.get(i);
+                String status;
+                if (counts[i] > 0) {
+                    status = BatchResult.JOINED;
+                } else if (event == null || !users.contains(userID)) {
+                    status = BatchResult.NOT_FOUND;
+                } else if (joined.contains(userID)) {
+                    status = BatchResult.ALREADY_JOINED;
+                } else {
+                    status = BatchResult.FULL;
+                }
+                result.add(new BatchResult(userID, status));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+        eventWritten(eventID, event);
+        return result;
     }
 
     /**
@@ -274,6 +854,7 @@ public class EventResource {
      * We do this because PUT is idempotent, meaning that running the same PUT several
      * times is the same as running it exactly once.
      * Any Event ID value set in the passed Event data is ignored.
+     * The update or insert is a single statement that returns the stored row.
      *
      * @param eventID    the ID for the Event, assumed to be unique
      * @param event a JSON representation of the Event; The id parameter overrides any id specified here.
@@ -283,32 +864,27 @@ public class EventResource {
     @ApiMethod(path = "event/{id}/{token}", httpMethod = PUT)
     public Event putEvent(Event event, @Named("id") int eventID, @Named("token") String token) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
+        Event result = null;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
+            connection = pool.getConnection();
             event.setId(eventID);
-            resultSet = selectEvent(eventID, statement);
-            if (resultSet.next() && isAuthorized(token, eventID)) {
-                updateEvent(event, statement);
+            if (isAuthorized(token, eventID)) {
+                result = upsertEvent(event, connection);
             } else {
-                insertEvent(event, statement);
+                result = insertEvent(event, connection);
+                if (result == null) {
+                    result = getEvent(eventID, connection);
+                }
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (resultSet != null) {
-                resultSet.close();
-            }
-            if (statement != null) {
-                statement.close();
-            }
             if (connection != null) {
                 connection.close();
             }
         }
-        return getEvent(eventID);
+        eventWritten(eventID, result);
+        return result;
     }
 
     /**
@@ -324,186 +900,785 @@ public class EventResource {
     @ApiMethod(path = "event/{id}/{token}", httpMethod = DELETE)
     public void deleteEvent(Event event, @Named("id") int eventID, @Named("token") String token) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
+            connection = pool.getConnection();
             if(isAuthorized(token, eventID)) {
-                deleteEvent(eventID, statement);
+                deleteEvent(eventID, connection);
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
+        eventWritten(eventID, null);
     }
     /**
      * SQL Utility Functions
+     * The statements themselves are declared in Query; the ones returned by
+     * Query.prepare are cached on the connection, so only ResultSets are closed here.
      *********************************************/
 
     /*
-     * This function gets all events in the Events table
+     * This function joins the user in the token to an event, through the JoinCommitter if group
+     * commit is on, and returns the event, or null if there is no such event.
      */
-    private ResultSet selectEvents(Statement statement) throws SQLException {
-        return statement.executeQuery(
-                "SELECT Events.*, " +
-                        "COUNT (JoinedEvents.EventID) " +
-                        "FROM Events " +
-                        "LEFT JOIN JoinedEvents " +
-                        "ON JoinedEvents.EventID=Events.ID " +
-                        "GROUP BY Events.ID " +
-                        "ORDER BY Events.Time;"
-        );
+    private Event join(int eventID, String token) throws SQLException, ConflictException {
+        if (joins.isEnabled()) {
+            return joins.join(eventID, token);
+        }
+        Connection connection = null;
+        ResultSet resultSet = null;
+        Event result = null;
+        try {
+            connection = pool.getConnection();
+            int userID = identities.resolve(token, connection);
+            resultSet = executeJoin(eventID, userID, connection);
+            if (resultSet.next()) {
+                if (resultSet.getBoolean("Full")) {
+                    throw new ConflictException("event " + eventID + " is full");
+                }
+                result = Event.fromResultSet(resultSet);
+            }
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+        return result;
     }
 
     /*
-     * This function gets the event with the given ID from the Events table
+     * This function reports whether the user in the token has joined the given event, reading the
+     * primary so that a join just made counts.
      */
-    private ResultSet selectEvent(int id, Statement statement) throws SQLException {
-        return statement.executeQuery(
-                String.format(
-                        "SELECT Events.*, " +
-                                "COUNT (JoinedEvents.EventID) " +
-                                "FROM Events " +
-                                "LEFT JOIN JoinedEvents " +
-                                "ON JoinedEvents.EventID=Events.ID " +
-                                "WHERE Events.ID=%d" +
-                                "GROUP BY Events.ID " +
-                                "ORDER BY Events.Time;", id
-                )
-        );
-    }
-
-    /*
-     * This function inserts the given event using the given JDBC statement.
-     */
-    private void insertEvent(Event event, Statement statement) throws SQLException {
-        statement.executeUpdate(
-                String.format("INSERT INTO Events " +
-                                "VALUES (%d, %d, %s, %s, %s, %s, %s, %s, %s, %s);",
-                        event.getId(),
-                        event.getUserId(),
-                        getValueStringOrNull(event.getTitle()),
-                        getValueStringOrNull(event.getDescription()),
-                        (event.getTime() == null) ? "NULL" : getValueStringOrNull(event.getTime().toString()),
-                        getValueStringOrNull(event.getLocation()),
-                        (event.getCost() == 0) ? "NULL" : Float.toString(Float.max(event.getCost(), 0)),
-                        (event.getThreshold() == 0) ? "NULL" : Integer.toString(event.getThreshold()),
-                        (event.getCapacity() == 0) ? "NULL" : Integer.toString(event.getCapacity()),
-                        getValueStringOrNull(event.getCategory())
-                )
-        );
-    }
-
-    /*
-     * This function modifies the given event using the given JDBC statement.
-     */
-    private void updateEvent(Event event, Statement statement) throws SQLException {
-        statement.executeUpdate(
-                String.format("UPDATE Events " +
-                                "SET Title=COALESCE(%s, Events.Title), " +
-                                "Description=COALESCE(%s, Events.Description), " +
-                                "Time=COALESCE(%s, Events.Time), " +
-                                "Location=COALESCE(%s, Events.Location), " +
-                                "Cost=COALESCE(%s, Events.Cost), " +
-                                "Threshold=COALESCE(%s, Events.Threshold), " +
-                                "Capacity=COALESCE(%s, Events.Capacity), " +
-                                "Category=COALESCE(%s, Events.Category) " +
-                                "WHERE id=%d;",
-                        getValueStringOrNull(event.getTitle()),
-                        getValueStringOrNull(event.getDescription()),
-                        (event.getTime() == null) ? "NULL" : getValueStringOrNull(event.getTime().toString()),
-                        getValueStringOrNull(event.getLocation()),
-                        (event.getCost() == 0) ? "NULL" : Float.toString(Float.max(event.getCost(), 0)),
-                        (event.getThreshold() == 0) ? "NULL" : Integer.toString(event.getThreshold()),
-                        (event.getCapacity() == 0) ? "NULL" : Integer.toString(event.getCapacity()),
-                        getValueStringOrNull(event.getCategory()),
-                        event.getId()
-                )
-        );
+    private boolean hasJoined(int eventID, String token) throws SQLException {
+        Connection connection = null;
+        ResultSet resultSet = null;
+        try {
+            connection = pool.getConnection();
+            PreparedStatement statement = Query.SELECT_JOINED.prepare(connection);
+            statement.setInt(1, eventID);
+            statement.setInt(2, identities.resolve(token, connection));
+            resultSet = statement.executeQuery();
+            return resultSet.next();
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
     }
 
     /*
-     * This function deletes the event with the given id using the given JDBC statement.
+     * This function runs JOIN_EVENT for the given event and user on the given connection, and returns its result set.
      */
-    private void deleteEvent(int id, Statement statement) throws SQLException {
-        statement.executeUpdate(
-                String.format("DELETE FROM Events WHERE ID=%d", id)
-        );
+    private ResultSet executeJoin(int eventID, int userID, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.JOIN_EVENT.prepare(connection);
+        statement.setInt(1, eventID);
+        statement.setInt(2, userID);
+        statement.setInt(3, userID);
+        statement.setInt(4, eventID);
+        return statement.executeQuery();
     }
 
     /*
-     * This function returns a value literal suitable for an SQL INSERT/UPDATE command.
-     * If the value is NULL, it returns an unquoted NULL, otherwise it returns the value with or without quotes
-     * depending on the value of "quoted".
+     * This function brings this instance's in-memory event state up to date after a committed
+     * write to the event with the given ID. The event is the row read back after the write,
+     * or null if the event no longer exists.
      */
-    private String getValueStringOrNull(String value) {
-        if (value == null) {
-            return "NULL";
-        } else {
-            return "'" + value + "'";
-        }
+    private void eventWritten(int eventID, Event event) {
+        writes.eventWritten(eventID, event);
     }
 
     /*
-     * This function will decode a base64 encoded string
+     * This function gets the event with the given ID using the given connection,
+     * so that callers can reuse the connection they already hold.
      */
-    private String decodeBase64(String encodedString) {
-        byte[] decodedBytes = Base64.getDecoder().decode(encodedString);
-        String decodedString = new String(decodedBytes);
-        return decodedString;
+    private Event getEvent(int id, Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        Event result = null;
+        try {
+            resultSet = selectEvent(id, connection);
+            if (resultSet.next()) {
+                result = Event.fromResultSet(resultSet);
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
     }
 
     /*
-     * This function will encode a string to base64
+     * This function reads every event in the Events table, in time order, through the cache.
      */
-    private String encodeBase64(String decodedString) {
-        String encodedString = Base64.getEncoder().encodeToString(decodedString.getBytes());
-        return encodedString;
+    private List<Event> getAllEvents() throws SQLException {
+        List<Event> cached = cache.getAll();
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = cache.startLoad();
+        Connection connection = null;
+        ResultSet resultSet = null;
+        List<Event> result = new ArrayList<Event>();
+        try {
+            connection = pool.getConnection();
+            resultSet = selectEvents(Query.SELECT_EVENTS, connection);
+            while (resultSet.next()) {
+                result.add(Event.fromResultSet(resultSet));
+            }
+            cache.putAllLoaded(result, stamp);
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+        return result;
     }
 
+    /*
+     * This function writes every event in the Events table, in time order, as getEvents returns
+     * them without parameters, but without building the list: from the EventCache's snapshot if
+     * it holds a current one, and otherwise row by row as they are fetched, FETCH_SIZE at a time.
+     * Summaries are read without their descriptions.
+     */
+    void writeAllEvents(boolean summary, EventJsonWriter out) throws SQLException, IOException {
+        List<Event> cached = cache.getAll();
+        if (cached != null) {
+            for (Event event : cached) {
+                out.write(event);
+            }
+            return;
+        }
+        Connection connection = null;
+        ResultSet resultSet = null;
+        try {
+            connection = reads.getReadConnection();
+            resultSet = selectEvents(summary ? Query.SELECT_EVENTS_SUMMARY : Query.SELECT_EVENTS, connection);
+            while (resultSet.next()) {
+                out.writeRow(resultSet);
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+    }
 
     /*
-     * This function will check if a user is authorized to edit an event
-     * given the username:password encoded in base64 and the event ID
+     * This function gets all events in the Events table, with the given query (SELECT_EVENTS or its summary form).
+     * Postgres only honors the fetch size inside a transaction, so autocommit is turned off;
+     * the pool restores it when the connection is returned.
      */
-    private boolean isAuthorized(String base64UsernamePassword, int eventID) {
-        //TODO: check if user is authorized
-        // https://blog.restcase.com/restful-api-authentication-basics/
-        // Basic Authentication section
-        // Anyone is allowed to access anything
-        return true;
+    private ResultSet selectEvents(Query query, Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        PreparedStatement statement = query.prepare(connection);
+        statement.setFetchSize(FETCH_SIZE);
+        return statement.executeQuery();
     }
 
     /*
-     * This function returns the userID from the Users table given a username
+     * This function gets up to limit events from the given position up to the given time (or
+     * without an end, if null), from the UpcomingEvents index if it covers them, and otherwise from
+     * the database. A stale index is reloaded first, by one request at a time, from the primary;
+     * other windows may be read from a replica. Summaries read from the database are read without
+     * their descriptions; the caller summarizes the rest.
      */
-    private int getUserId(String username) throws SQLException {
+    private List<Event> getWindow(EventCursor position, Timestamp end, int limit, boolean summary)
+            throws SQLException {
+        List<Event> result = upcoming.window(position, end, limit);
+        if (result != null) {
+            return result;
+        }
+        if (upcoming.startLoad()) {
+            loadUpcoming();
+            result = upcoming.window(position, end, limit);
+            if (result != null) {
+                return result;
+            }
+        }
         Connection connection = null;
-        Statement statement = null;
+        try {
+            connection = reads.getReadConnection();
+            result = selectWindow(summary ? Query.SELECT_EVENTS_WINDOW_SUMMARY : Query.SELECT_EVENTS_WINDOW,
+                    position, end, limit, connection);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function loads the UpcomingEvents index with the events from now to its horizon, from the primary.
+     */
+    private void loadUpcoming() throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        boolean loaded = false;
+        Connection connection = null;
+        try {
+            connection = pool.getConnection();
+            List<Event> events = selectWindow(Query.SELECT_EVENTS_WINDOW, new EventCursor(now, Integer.MIN_VALUE),
+                    upcoming.horizon(now), upcoming.getLoadLimit(), connection);
+            upcoming.putLoaded(events, now);
+            loaded = true;
+        } finally {
+            if (connection != null) { connection.close(); }
+            if (!loaded) {
+                upcoming.loadFailed();
+            }
+        }
+    }
+
+    /*
+     * This function gets up to limit events from the given (Time, ID) position (inclusive) up to
+     * the given time (exclusive, or without an end if null), in (Time, ID) order, with the given
+     * query (SELECT_EVENTS_WINDOW or its summary form).
+     */
+    private List<Event> selectWindow(Query query, EventCursor position, Timestamp end, int limit,
+                                     Connection connection) throws SQLException {
         ResultSet resultSet = null;
-        int userID;
+        List<Event> result = new ArrayList<Event>();
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery(
-                    String.format("SELECT ID FROM Users WHERE Username='%s'", username)
-            );
-            if (resultSet.next()) {
-                userID = resultSet.getInt(1);
-            } else {
-                throw new RuntimeException("failed to find user with the given username");
+            PreparedStatement statement = query.prepare(connection);
+            statement.setTimestamp(1, position.getTime());
+            statement.setInt(2, position.getId());
+            statement.setTimestamp(3, (end == null) ? new Timestamp(PGStatement.DATE_POSITIVE_INFINITY) : end);
+            statement.setInt(4, limit);
+            connection.setAutoCommit(false);
+            statement.setFetchSize(Math.min(limit, FETCH_SIZE));
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(Event.fromResultSet(resultSet));
             }
-        } catch (SQLException e) {
-            throw (e);
         } finally {
             if (resultSet != null) { resultSet.close(); }
-            if (statement != null) { statement.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function gets up to limit events of the given category from the given position up to the
+     * given time (or without an end, if null). The IDs come from the CategoryIndex, reloaded first if
+     * it is stale, and only those events are read. If one of them no longer belongs in the window,
+     * because it was changed through another instance, the page is read with a query instead.
+     * As in getWindow, the index is reloaded from the primary, the events may be read from a replica,
+     * and summaries are read without their descriptions.
+     */
+    private List<Event> getCategoryWindow(String category, EventCursor position, Timestamp end, int limit,
+                                          boolean summary) throws SQLException {
+        List<Integer> ids = categories.page(category, position, end, limit);
+        if (ids == null) {
+            Connection connection = null;
+            try {
+                connection = pool.getConnection();
+                categories.refresh(connection);
+            } finally {
+                if (connection != null) { connection.close(); }
+            }
+            ids = categories.page(category, position, end, limit);
+        }
+        Connection connection = null;
+        try {
+            connection = reads.getReadConnection();
+            if (ids != null) {
+                Map<Integer, Event> events = ids.isEmpty()
+                        ? new HashMap<Integer, Event>()
+                        : selectEventsById(summary ? Query.SELECT_EVENTS_BY_ID_SUMMARY : Query.SELECT_EVENTS_BY_ID,
+                                ids, connection);
+                List<Event> result = new ArrayList<Event>();
+                for (int id : ids) {
+                    Event event = events.get(id);
+                    if (event == null || !category.equals(event.getCategory()) || event.getTime() == null
+                            || EventCursor.POSITION.compare(new EventCursor(event.getTime(), id), position) < 0
+                            || (end != null && !event.getTime().before(end))) {
+                        result = null;
+                        break;
+                    }
+                    result.add(event);
+                }
+                if (result != null) {
+                    return result;
+                }
+            }
+            return selectFilteredWindow(summary ? Query.SELECT_CATEGORY_WINDOW_SUMMARY : Query.SELECT_CATEGORY_WINDOW,
+                    category, position, end, limit, connection);
+        } finally {
             if (connection != null) { connection.close(); }
         }
-        return userID;
     }
 
+    /*
+     * This function gets up to limit untimed events, in the given state or category if either is not
+     * null, from the given ID on, in ID order, from the database, which may be a replica.
+     * Summaries are read without their descriptions.
+     */
+    private List<Event> getUntimed(String state, String category, int firstId, int limit, boolean summary)
+            throws SQLException {
+        Query query;
+        String filter = null;
+        if (state != null) {
+            query = summary ? Query.SELECT_UNTIMED_STATE_EVENTS_SUMMARY : Query.SELECT_UNTIMED_STATE_EVENTS;
+            filter = state;
+        } else if (category != null) {
+            query = summary ? Query.SELECT_UNTIMED_CATEGORY_EVENTS_SUMMARY : Query.SELECT_UNTIMED_CATEGORY_EVENTS;
+            filter = category;
+        } else {
+            query = summary ? Query.SELECT_UNTIMED_EVENTS_SUMMARY : Query.SELECT_UNTIMED_EVENTS;
+        }
+        Connection connection = null;
+        ResultSet resultSet = null;
+        List<Event> result = new ArrayList<Event>();
+        try {
+            connection = reads.getReadConnection();
+            PreparedStatement statement = query.prepare(connection);
+            int parameter = 1;
+            if (filter != null) {
+                statement.setString(parameter++, filter);
+            }
+            statement.setInt(parameter++, firstId);
+            statement.setInt(parameter, limit);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(Event.fromResultSet(resultSet));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function gets up to limit events in the given state from the given position up to the
+     * given time (or without an end, if null), from the database, which may be a replica.
+     * Summaries are read without their descriptions.
+     */
+    private List<Event> getStateWindow(String state, EventCursor position, Timestamp end, int limit,
+                                       boolean summary) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = reads.getReadConnection();
+            return selectFilteredWindow(summary ? Query.SELECT_STATE_WINDOW_SUMMARY : Query.SELECT_STATE_WINDOW,
+                    state, position, end, limit, connection);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+    }
 
+    /*
+     * This function gets up to limit events with the given category or state from the given (Time, ID)
+     * position (inclusive) up to the given time (exclusive, or without an end if null), in (Time, ID)
+     * order, with the given query (SELECT_CATEGORY_WINDOW, SELECT_STATE_WINDOW or a summary form).
+     */
+    private List<Event> selectFilteredWindow(Query query, String filter, EventCursor position, Timestamp end,
+                                             int limit, Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        List<Event> result = new ArrayList<Event>();
+        try {
+            PreparedStatement statement = query.prepare(connection);
+            statement.setString(1, filter);
+            statement.setTimestamp(2, position.getTime());
+            statement.setInt(3, position.getId());
+            statement.setTimestamp(4, (end == null) ? new Timestamp(PGStatement.DATE_POSITIVE_INFINITY) : end);
+            statement.setInt(5, limit);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(Event.fromResultSet(resultSet));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function counts the events in each category, in category order.
+     */
+    private List<CategoryCount> selectCategoryCounts(Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        List<CategoryCount> result = new ArrayList<CategoryCount>();
+        try {
+            resultSet = Query.SELECT_CATEGORY_COUNTS.prepare(connection).executeQuery();
+            while (resultSet.next()) {
+                result.add(new CategoryCount(resultSet.getString(1), resultSet.getInt(2)));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function reads the change log for the EventWatcher, from where its last read ended
+     * up to the current watermark, and wakes the requests waiting for it.
+     */
+    private void tailChanges() throws SQLException {
+        Connection connection = null;
+        boolean read = false;
+        try {
+            connection = pool.getConnection();
+            long from = watcher.getTailFrom();
+            long until = selectLong(Query.SELECT_CHANGE_WATERMARK.prepare(connection));
+            Map<Integer, Character> kinds = (from < 0 || from >= until)
+                    ? new HashMap<Integer, Character>()
+                    : selectChangeKinds(from, until, null, Integer.MAX_VALUE, connection);
+            watcher.putTail(from, until, kinds);
+            read = true;
+        } finally {
+            if (!read) {
+                watcher.tailFailed();
+            }
+            if (connection != null) { connection.close(); }
+        }
+    }
+
+    /*
+     * This function gets the changes to the given events since the given watermark from the change log,
+     * for a watermark older than the EventWatcher's reads.
+     */
+    private EventChanges getWatchedChanges(List<Integer> ids, long since) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = pool.getConnection();
+            long until = selectLong(Query.SELECT_CHANGE_WATERMARK.prepare(connection));
+            if (since >= until) {
+                return new EventChanges(since, false);
+            }
+            if (since < selectLong(Query.SELECT_CHANGE_HORIZON.prepare(connection))) {
+                return new EventChanges(until, true);
+            }
+            return readChanges(selectChangeKinds(since, until, ids, 0, connection), until, connection);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+    }
+
+    /*
+     * This function reads the events behind the given changes, up to the given watermark, on a pooled connection.
+     */
+    private EventChanges getChanges(Map<Integer, Character> kinds, long until) throws SQLException {
+        if (kinds.isEmpty()) {
+            return new EventChanges(until, false);
+        }
+        Connection connection = null;
+        try {
+            connection = pool.getConnection();
+            return readChanges(kinds, until, connection);
+        } finally {
+            if (connection != null) { connection.close(); }
+        }
+    }
+
+    /*
+     * This function gets the events changed by the transactions with IDs from since up to until,
+     * either all of them (up to limit) or those with the given IDs, as 'D' for a deleted event,
+     * 'U' for a created or modified one, or 'C' for one whose participant count is all that changed.
+     */
+    private Map<Integer, Character> selectChangeKinds(long since, long until, List<Integer> ids, int limit,
+                                                      Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        Map<Integer, Character> result = new LinkedHashMap<Integer, Character>();
+        try {
+            PreparedStatement statement;
+            if (ids == null) {
+                statement = Query.SELECT_EVENT_CHANGES.prepare(connection);
+                statement.setInt(3, limit);
+            } else {
+                statement = Query.SELECT_WATCHED_EVENT_CHANGES.prepare(connection);
+                statement.setArray(3, idArray(ids, connection));
+            }
+            statement.setLong(1, since);
+            statement.setLong(2, until);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                char kind = resultSet.getBoolean(2) ? 'D' : (resultSet.getBoolean(3) ? 'U' : 'C');
+                result.put(resultSet.getInt(1), kind);
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function turns changes by event ID into EventChanges up to the given watermark, reading
+     * the current row of each event that was not deleted. An event deleted since the watermark is
+     * reported as deleted; the next changes report it again.
+     */
+    private EventChanges readChanges(Map<Integer, Character> kinds, long until, Connection connection)
+            throws SQLException {
+        EventChanges result = new EventChanges(until, false);
+        List<Integer> changedIDs = new ArrayList<Integer>();
+        for (Map.Entry<Integer, Character> change : kinds.entrySet()) {
+            if (change.getValue() == 'D') {
+                result.getDeleted().add(change.getKey());
+            } else {
+                changedIDs.add(change.getKey());
+            }
+        }
+        Map<Integer, Event> events = changedIDs.isEmpty()
+                ? new HashMap<Integer, Event>() : selectEventsById(changedIDs, connection);
+        for (int eventID : changedIDs) {
+            Event event = events.get(eventID);
+            if (event == null) {
+                result.getDeleted().add(eventID);
+            } else if (kinds.get(eventID) == 'U') {
+                result.getEvents().add(event);
+            } else {
+                result.getCounts().add(new EventCount(eventID, event.getCount(), event.getState()));
+            }
+        }
+        return result;
+    }
+
+    /*
+     * This function runs a query that returns a single number.
+     */
+    private static long selectLong(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /*
+     * This function gets the events with the given IDs, keyed by ID. IDs of missing events are left out.
+     */
+    private Map<Integer, Event> selectEventsById(List<Integer> ids, Connection connection) throws SQLException {
+        return selectEventsById(Query.SELECT_EVENTS_BY_ID, ids, connection);
+    }
+
+    /*
+     * As above, with the given query (SELECT_EVENTS_BY_ID or its summary form).
+     */
+    private Map<Integer, Event> selectEventsById(Query query, List<Integer> ids, Connection connection)
+            throws SQLException {
+        ResultSet resultSet = null;
+        Map<Integer, Event> result = new HashMap<Integer, Event>();
+        try {
+            PreparedStatement statement = query.prepare(connection);
+            statement.setArray(1, idArray(ids, connection));
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Event event = Event.fromResultSet(resultSet);
+                result.put(event.getId(), event);
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function gets the event with the given ID from the Events table
+     */
+    private ResultSet selectEvent(int id, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.SELECT_EVENT.prepare(connection);
+        statement.setInt(1, id);
+        return statement.executeQuery();
+    }
+
+    /*
+     * This function inserts the given event under a newly allocated ID and returns it as stored.
+     * A PUT may already have created an event with an ID from a block that had not been
+     * handed out yet; that ID is skipped and the insert retried with the next one.
+     */
+    private Event insertNewEvent(Event event, Connection connection) throws SQLException {
+        for (int attempt = 0; attempt < MAX_ID_ATTEMPTS; attempt++) {
+            event.setId(eventIds.nextId(connection));
+            Event result = insertEvent(event, connection);
+            if (result != null) {
+                return result;
+            }
+        }
+        throw new RuntimeException("failed to find unique ID...");
+    }
+
+    /*
+     * This function inserts the given event using the given connection and returns it as stored.
+     * It returns null, inserting nothing, if an event with the same ID already exists.
+     */
+    private Event insertEvent(Event event, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.INSERT_EVENT_RETURNING.prepare(connection);
+        statement.setInt(1, event.getId());
+        statement.setInt(2, event.getUserId());
+        setEventFields(statement, 3, event);
+        return readEvent(statement);
+    }
+
+    /*
+     * This function updates the given event, or inserts it if it does not exist, using the given
+     * connection, and returns it as stored. Fields left unset in the given event keep their current
+     * values. The statement returns nothing if another request inserted the event after it looked,
+     * in which case it is run again and updates that event.
+     */
+    private Event upsertEvent(Event event, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.UPSERT_EVENT.prepare(connection);
+        setEventFields(statement, 1, event);
+        statement.setInt(9, event.getId());
+        statement.setInt(10, event.getId());
+        statement.setInt(11, event.getUserId());
+        setEventFields(statement, 12, event);
+        for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+            Event result = readEvent(statement);
+            if (result != null) {
+                // A raised capacity gives its new seats to the users waiting for them.
+                Event promoted = promoteWaitlist(event.getId(), connection);
+                return (promoted != null) ? promoted : result;
+            }
+        }
+        throw new RuntimeException("event " + event.getId() + " kept changing...");
+    }
+
+    /*
+     * This function enrolls the users waiting for an event in the seats it has free, and returns
+     * the event with its new count, or null if nobody was enrolled.
+     */
+    private Event promoteWaitlist(int eventID, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.PROMOTE_WAITLIST.prepare(connection);
+        statement.setInt(1, eventID);
+        return readEvent(statement);
+    }
+
+    /*
+     * This function runs the given statement, which returns at most one event row, and returns the event.
+     */
+    private Event readEvent(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = null;
+        Event result = null;
+        try {
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                result = Event.fromResultSet(resultSet);
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function binds the eight editable event fields (Title through Category)
+     * to consecutive parameters starting at the given index.
+     */
+    static void setEventFields(PreparedStatement statement, int index, Event event) throws SQLException {
+        Query.setStringOrNull(statement, index, event.getTitle());
+        Query.setStringOrNull(statement, index + 1, event.getDescription());
+        Query.setTimestampOrNull(statement, index + 2, event.getTime());
+        Query.setStringOrNull(statement, index + 3, event.getLocation());
+        Query.setAmountOrNull(statement, index + 4, event.getCost());
+        Query.setIntOrNull(statement, index + 5, event.getThreshold());
+        Query.setIntOrNull(statement, index + 6, event.getCapacity());
+        Query.setStringOrNull(statement, index + 7, event.getCategory());
+    }
+
+    /*
+     * This function deletes the event with the given id using the given connection.
+     */
+    private void deleteEvent(int id, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.DELETE_EVENT.prepare(connection);
+        statement.setInt(1, id);
+        statement.executeUpdate();
+    }
+
+    /*
+     * This function rejects a batch request body that is missing, empty, too large or has null items.
+     */
+    private void checkBatch(List<?> items) throws BadRequestException {
+        if (items == null || items.isEmpty()) {
+            throw new BadRequestException("batch is empty");
+        }
+        if (items.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("batch has more than " + MAX_BATCH_SIZE + " items");
+        }
+        if (items.contains(null)) {
+            throw new BadRequestException("batch has a null item");
+        }
+    }
+
+    /*
+     * This function rejects a state parameter that is not a state, or that comes with a category.
+     */
+    private static void checkState(String state, String category) throws BadRequestException {
+        if (state == null) {
+            return;
+        }
+        if (!state.equals(Event.PENDING) && !state.equals(Event.CONFIRMED) && !state.equals(Event.FULL)) {
+            throw new BadRequestException("state must be " + Event.PENDING + ", " + Event.CONFIRMED
+                    + " or " + Event.FULL);
+        }
+        if (category != null) {
+            throw new BadRequestException("state and category cannot be combined");
+        }
+    }
+
+    /*
+     * This function tells whether the given view parameter asks for summaries, rejecting unknown views.
+     */
+    static boolean isSummaryView(String view) throws BadRequestException {
+        if (view == null || view.equals(FULL_VIEW)) {
+            return false;
+        }
+        if (view.equals(SUMMARY_VIEW)) {
+            return true;
+        }
+        throw new BadRequestException("view must be " + FULL_VIEW + " or " + SUMMARY_VIEW);
+    }
+
+    /*
+     * This function returns the given events without their descriptions.
+     */
+    static List<Event> toSummaries(List<Event> events) {
+        List<Event> result = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            result.add(event.toSummary());
+        }
+        return result;
+    }
+
+    /*
+     * This function returns the given IDs as a Postgres integer array, for "= ANY (?)" parameters.
+     */
+    private Array idArray(List<Integer> ids, Connection connection) throws SQLException {
+        return connection.createArrayOf("integer", ids.toArray());
+    }
+
+    /*
+     * This function runs the given statement, which selects a single ID column, and returns the IDs.
+     */
+    private Set<Integer> selectIds(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = null;
+        Set<Integer> result = new HashSet<Integer>();
+        try {
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(resultSet.getInt(1));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function will encode a string to base64
+     */
+    private String encodeBase64(String decodedString) {
+        String encodedString = Base64.getEncoder().encodeToString(decodedString.getBytes());
+        return encodedString;
+    }
+
+
+    /*
+     * This function will check if a user is authorized to edit an event
+     * given the username:password encoded in base64 and the event ID
+     */
+    private boolean isAuthorized(String base64UsernamePassword, int eventID) {
+        //TODO: check if user is authorized
+        // https://blog.restcase.com/restful-api-authentication-basics/
+        // Basic Authentication section
+        // Anyone is allowed to access anything
+        return true;
+    }
 }
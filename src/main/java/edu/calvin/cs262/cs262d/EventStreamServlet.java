@@ -0,0 +1,134 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * This servlet serves the event lists of GET events and GET user/events/{token} at
+ * /stream/events and /stream/user/events/{token}, with the same parameters (including view) and the
+ * same JSON, but written by an EventJsonWriter as the events are read instead of being collected
+ * into a list and marshalled by Endpoints. It is a plain servlet because Endpoints only writes whole
+ * return values.
+ * <p>
+ * The full event list and a user's events are written from the database's rows (or from the
+ * EventCache's snapshot) as they are read, so the instance holds a single serialized copy of them,
+ * instead of a List of Events and then its JSON, and spends nothing on reflective marshalling. That
+ * copy still grows with the number of events, because App Engine standard buffers the whole response
+ * before sending it. Pages of GET events are at most MAX_PAGE_SIZE events, so they are read through
+ * EventResource.getEvents and only written here. The JSON is always compact, as with prettyPrint=false. A database error after the first
+ * events have been sent cuts the response short, leaving it as invalid JSON.
+ */
+public class EventStreamServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String EVENTS_PATH = "/events";
+    private static final String USER_EVENTS_PATH = "/user/events/";
+
+    private EventResource events;
+    private UserResource users;
+
+    @Override
+    public void init() {
+        events = new EventResource();
+        users = new UserResource();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        String path = request.getPathInfo();
+        try {
+            boolean summary = EventResource.isSummaryView(request.getParameter("view"));
+            if (EVENTS_PATH.equals(path)) {
+                writeEvents(request, summary, response);
+            } else if (path != null && path.startsWith(USER_EVENTS_PATH) && path.length() > USER_EVENTS_PATH.length()) {
+                String token = path.substring(USER_EVENTS_PATH.length());
+                EventJsonWriter out = startList(response, summary);
+                users.writeUserEvents(token, summary, out);
+                out.finish(null);
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+        } catch (BadRequestException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (SQLException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    /*
+     * This function writes the response to /stream/events: every event if there are no parameters,
+     * and otherwise the page of events that GET events returns for the same parameters.
+     */
+    private void writeEvents(HttpServletRequest request, boolean summary, HttpServletResponse response)
+            throws IOException, SQLException, BadRequestException {
+        Integer limit = intParameter(request, "limit");
+        String pageToken = request.getParameter("pageToken");
+        Date from = dateParameter(request, "from");
+        Date to = dateParameter(request, "to");
+        String category = request.getParameter("category");
+        String state = request.getParameter("state");
+        if (limit == null && pageToken == null && from == null && to == null && category == null && state == null) {
+            EventJsonWriter out = startList(response, summary);
+            events.writeAllEvents(summary, out);
+            out.finish(null);
+            return;
+        }
+        CollectionResponse<Event> page = events.getEvents(limit, pageToken, from, to, category, state,
+                summary ? EventResource.SUMMARY_VIEW : null);
+        EventJsonWriter out = startList(response, summary);
+        for (Event event : page.getItems()) {
+            out.write(event);
+        }
+        out.finish(page.getNextPageToken());
+    }
+
+    /*
+     * This function starts a successful JSON response and returns a writer for its event list.
+     */
+    private EventJsonWriter startList(HttpServletResponse response, boolean summary) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json; charset=UTF-8");
+        return new EventJsonWriter(response.getOutputStream(), summary);
+    }
+
+    /*
+     * This function returns an integer query parameter, or null if it is not given.
+     */
+    private Integer intParameter(HttpServletRequest request, String name) throws BadRequestException {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException(name + " is not an integer");
+        }
+    }
+
+    /*
+     * This function returns an RFC 3339 date query parameter, as Endpoints parses them, or null if it is not given.
+     */
+    private Date dateParameter(HttpServletRequest request, String name) throws BadRequestException {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new Date(DateTime.parseRfc3339(value).getValue());
+        } catch (NumberFormatException e) {
+            throw new BadRequestException(name + " is not an RFC 3339 date");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class stamps every write to the events of this instance with a version: one counter for the
+ * event set as a whole, and the version of the last write to each event. ConditionalGetFilter turns
+ * them into ETags, so that a client polling an unchanged resource gets 304 Not Modified without a query.
+ * <p>
+ * Versions only count writes made through this instance, so each ETag also holds a random instance tag
+ * and the ttlMillis period it was issued in. A client is sent the full response again at least once per
+ * period, which bounds how long it can miss a change made through another App Engine instance,
+ * as with EventCache.
+ */
+public class EventVersions {
+
+    private static EventVersions instance;
+
+    private final long ttlMillis;
+    private final String instanceTag;
+
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Long> eventVersions = new ConcurrentHashMap<Integer, Long>();
+
+    /**
+     * This method returns the versions shared by this instance. How long an ETag stays valid comes from
+     * the eventconnect.etag.ttlMillis system property; 0 disables ETags.
+     */
+    public static synchronized EventVersions getInstance() {
+        if (instance == null) {
+            instance = new EventVersions(Long.getLong("eventconnect.etag.ttlMillis", 10000));
+        }
+        return instance;
+    }
+
+    public EventVersions(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.instanceTag = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    }
+
+    /**
+     * This method records a committed write to the event with the given ID, including its deletion.
+     */
+    public void eventChanged(int id) {
+        long stamp = version.incrementAndGet();
+        eventVersions.merge(id, stamp, Math::max);
+    }
+
+    /**
+     * This method returns the current ETag of the event with the given ID, or null if ETags are disabled.
+     */
+    public String eventTag(int id) {
+        Long stamp = eventVersions.get(id);
+        return tag((stamp == null) ? 0 : stamp);
+    }
+
+    /**
+     * This method returns the current ETag of the event set, and so of every list of events,
+     * or null if ETags are disabled.
+     */
+    public String setTag() {
+        return tag(version.get());
+    }
+
+    private String tag(long stamp) {
+        if (ttlMillis <= 0) {
+            return null;
+        }
+        return "W/\"" + instanceTag + "." + (System.currentTimeMillis() / ttlMillis) + "." + stamp + "\"";
+    }
+}
@@ -0,0 +1,225 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class lets long-polling clients wait for changes to the events they watch. It keeps the
+ * last windowMillis of the event change log in memory, as batches of the events each read of the
+ * log found changed, so that every waiting request is answered from one shared read rather than its
+ * own queries. The log is read again every tailMillis while requests are waiting, and as soon as
+ * EventResource reports a write of its own, so changes made through this instance arrive at once and
+ * changes made through other instances within tailMillis.
+ * <p>
+ * A request waits up to waitMillis. At most maxWaiters requests wait at once, since each holds a
+ * request thread (but no connection); the others are answered at once and poll again.
+ */
+public class EventWatcher {
+
+    private static EventWatcher instance;
+
+    private final long waitMillis;
+    private final long tailMillis;
+    private final long windowMillis;
+    private final Semaphore waiters;
+
+    // Guarded by this.
+    private final Deque<Batch> batches = new ArrayDeque<Batch>();
+    // The watermark the next read of the log starts from, or -1 before the first read.
+    private long until = -1;
+    private long lastTailAt = 0;
+    private boolean tailing = false;
+    private boolean written = false;
+
+    /**
+     * This method returns the watcher shared by this instance. Its intervals and limit come from the
+     * eventconnect.watch.waitMillis, eventconnect.watch.tailMillis, eventconnect.watch.windowMillis
+     * and eventconnect.watch.maxWaiters system properties.
+     */
+    public static synchronized EventWatcher getInstance() {
+        if (instance == null) {
+            instance = new EventWatcher(
+                    Long.getLong("eventconnect.watch.waitMillis", 25000),
+                    Long.getLong("eventconnect.watch.tailMillis", 1000),
+                    Long.getLong("eventconnect.watch.windowMillis", 60000),
+                    Integer.getInteger("eventconnect.watch.maxWaiters", 16)
+            );
+        }
+        return instance;
+    }
+
+    public EventWatcher(long waitMillis, long tailMillis, long windowMillis, int maxWaiters) {
+        this.waitMillis = waitMillis;
+        this.tailMillis = tailMillis;
+        this.windowMillis = windowMillis;
+        this.waiters = new Semaphore(maxWaiters);
+    }
+
+    /**
+     * This method claims one of the maxWaiters places for a request that wants to wait, returning
+     * false if there are none left. A caller given a place must give it back with leave().
+     */
+    public boolean enter() {
+        return waiters.tryAcquire();
+    }
+
+    public void leave() {
+        waiters.release();
+    }
+
+    /**
+     * This method returns how long a request waits for a change before it is answered without one.
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    /**
+     * This method returns whether the log is due to be read, and if so claims the read for the
+     * caller, which must finish with putTail or tailFailed.
+     */
+    public synchronized boolean startTail() {
+        if (tailing || (!written && System.currentTimeMillis() - lastTailAt < tailMillis)) {
+            return false;
+        }
+        tailing = true;
+        written = false;
+        return true;
+    }
+
+    /**
+     * This method returns the watermark the next read of the log starts from, or -1 if the log has not
+     * been read for windowMillis (or ever), in which case the read only establishes the watermark.
+     */
+    public synchronized long getTailFrom() {
+        return (System.currentTimeMillis() - lastTailAt > windowMillis) ? -1 : until;
+    }
+
+    /**
+     * This method records a read of the log: the changes with transaction IDs from the given watermark
+     * up to the next one, by event ID, as 'D' for a deleted event, 'U' for a modified one or 'C' for
+     * one whose participant count is all that changed. It wakes every waiting request.
+     */
+    public synchronized void putTail(long from, long next, Map<Integer, Character> kinds) {
+        long now = System.currentTimeMillis();
+        if (until >= 0 && from == until) {
+            batches.addLast(new Batch(from, next, now, kinds));
+        } else {
+            // The first read, or the first after an idle spell: start over from here.
+            batches.clear();
+            batches.addLast(new Batch(next, next, now, new HashMap<Integer, Character>()));
+        }
+        until = next;
+        while (batches.size() > 1 && now - batches.peekFirst().readAt > windowMillis) {
+            batches.removeFirst();
+        }
+        tailing = false;
+        lastTailAt = now;
+        notifyAll();
+    }
+
+    public synchronized void tailFailed() {
+        tailing = false;
+        notifyAll();
+    }
+
+    /**
+     * This method records a write committed through this instance, so that waiting requests read the log now.
+     */
+    public synchronized void eventWritten() {
+        written = true;
+        notifyAll();
+    }
+
+    /**
+     * This method returns the changes to the given events since the given watermark that the log reads
+     * in memory cover, coalesced by event, or null if the watermark is older than they go back.
+     * The changes may include some from just before the watermark.
+     */
+    public synchronized Changes changes(Collection<Integer> ids, long since) {
+        if (batches.isEmpty() || since < batches.peekFirst().from) {
+            return null;
+        }
+        Changes result = new Changes(until);
+        Iterator<Batch> newestFirst = batches.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Batch batch = newestFirst.next();
+            if (batch.until <= since) {
+                break;
+            }
+            for (int id : ids) {
+                Character kind = batch.kinds.get(id);
+                if (kind != null) {
+                    result.kinds.merge(id, kind, EventWatcher::stronger);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method waits until the log has been read past the given watermark, it is due to be read
+     * (because of a reported write or tailMillis passing) and nobody is reading it, or the deadline has passed.
+     */
+    public synchronized void await(long seen, long deadline) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        while (until <= seen && now < deadline && (tailing || (!written && now - lastTailAt < tailMillis))) {
+            long wake = tailing ? deadline : Math.min(deadline, lastTailAt + tailMillis);
+            wait(Math.max(1, wake - now));
+            now = System.currentTimeMillis();
+        }
+    }
+
+    /*
+     * This function merges two changes to one event: a deletion outweighs a modification,
+     * which outweighs a count change.
+     */
+    static char stronger(char a, char b) {
+        if (a == 'D' || b == 'D') {
+            return 'D';
+        }
+        return (a == 'U' || b == 'U') ? 'U' : 'C';
+    }
+
+    /**
+     * The changes found for a waiting request, by event ID, and the watermark they go up to.
+     */
+    public static class Changes {
+        private final long until;
+        private final Map<Integer, Character> kinds = new HashMap<Integer, Character>();
+
+        Changes(long until) {
+            this.until = until;
+        }
+
+        public long getUntil() {
+            return until;
+        }
+
+        public Map<Integer, Character> getKinds() {
+            return kinds;
+        }
+    }
+
+    /*
+     * One read of the log: the events changed by the transactions with IDs in [from, until).
+     */
+    private static class Batch {
+        private final long from;
+        private final long until;
+        private final long readAt;
+        private final Map<Integer, Character> kinds;
+
+        Batch(long from, long until, long readAt, Map<Integer, Character> kinds) {
+            this.from = from;
+            this.until = until;
+            this.readAt = readAt;
+            this.kinds = kinds;
+        }
+    }
+}
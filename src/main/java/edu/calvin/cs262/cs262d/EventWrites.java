@@ -0,0 +1,66 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class brings everything this instance keeps about events in memory up to date after a
+ * committed write: the EventVersions behind ETags, the EventWatcher's long polls, the
+ * AdmissionController's seat counters, the EventCache, UpcomingEvents, the CategoryIndex and the
+ * SearchIndex. Every resource that writes events, or changes their participants, reports each
+ * event it wrote here, so that none of them is missed.
+ */
+public class EventWrites {
+
+    private static EventWrites instance;
+
+    private final EventVersions versions;
+    private final EventWatcher watcher;
+    private final AdmissionController admission;
+    private final EventCache cache;
+    private final UpcomingEvents upcoming;
+    private final CategoryIndex categories;
+    private final SearchIndex search;
+
+    /**
+     * This method returns the writes of this instance, reported to its shared caches and indexes.
+     */
+    public static synchronized EventWrites getInstance() {
+        if (instance == null) {
+            instance = new EventWrites(EventVersions.getInstance(), EventWatcher.getInstance(),
+                    AdmissionController.getInstance(), EventCache.getInstance(), UpcomingEvents.getInstance(),
+                    CategoryIndex.getInstance(), SearchIndex.getInstance());
+        }
+        return instance;
+    }
+
+    public EventWrites(EventVersions versions, EventWatcher watcher, AdmissionController admission, EventCache cache,
+                       UpcomingEvents upcoming, CategoryIndex categories, SearchIndex search) {
+        this.versions = versions;
+        this.watcher = watcher;
+        this.admission = admission;
+        this.cache = cache;
+        this.upcoming = upcoming;
+        this.categories = categories;
+        this.search = search;
+    }
+
+    /**
+     * This method records a committed write to the event with the given ID. The event is the row
+     * read back after the write, or null if the event no longer exists.
+     */
+    public void eventWritten(int eventID, Event event) {
+        versions.eventChanged(eventID);
+        watcher.eventWritten();
+        if (event == null) {
+            admission.eventRemoved(eventID);
+            cache.eventRemoved(eventID);
+            upcoming.eventRemoved(eventID);
+            categories.eventRemoved(eventID);
+            search.eventRemoved(eventID);
+        } else {
+            admission.eventChanged(event);
+            cache.eventChanged(event);
+            upcoming.eventChanged(event);
+            categories.eventChanged(event);
+            search.eventChanged(event);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package edu.calvin.cs262.cs262d;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands out unique IDs for new rows without a database round trip per insert.
+ * Each instance reserves a block of IDs at a time from a Postgres sequence declared with
+ * INCREMENT BY BLOCK_SIZE (see EventConnect.sql): nextval returns the first ID of a block
+ * that no other caller, on this or any other App Engine instance, will ever receive.
+ * IDs within the block are then handed out from an in-memory counter.
+ * <p>
+ * IDs are unique but not gap-free: the unused part of a block is lost when an instance stops.
+ */
+public class IdAllocator {
+
+    // Must match the INCREMENT BY of the EventIDs and UserIDs sequences.
+    static final int BLOCK_SIZE = 50;
+
+    private static IdAllocator eventIds;
+    private static IdAllocator userIds;
+
+    private final Query nextBlock;
+    private final int blockSize;
+    private volatile Block block;
+
+    /**
+     * This method returns the allocator for Events IDs shared by this instance.
+     */
+    public static synchronized IdAllocator forEvents() {
+        if (eventIds == null) {
+            eventIds = new IdAllocator(Query.NEXT_EVENT_ID_BLOCK, BLOCK_SIZE);
+        }
+        return eventIds;
+    }
+
+    /**
+     * This method returns the allocator for Users IDs shared by this instance.
+     */
+    public static synchronized IdAllocator forUsers() {
+        if (userIds == null) {
+            userIds = new IdAllocator(Query.NEXT_USER_ID_BLOCK, BLOCK_SIZE);
+        }
+        return userIds;
+    }
+
+    public IdAllocator(Query nextBlock, int blockSize) {
+        this.nextBlock = nextBlock;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * This method returns a new unique ID. It only touches the database, using the given
+     * connection, when the current block is used up.
+     *
+     * @param connection the connection of the request that needs the ID
+     * @return an ID that has not been handed out before
+     * @throws SQLException if a new block could not be reserved
+     */
+    public int nextId(Connection connection) throws SQLException {
+        while (true) {
+            Block current = block;
+            if (current != null) {
+                int id = current.next.getAndIncrement();
+                if (id < current.end) {
+                    return id;
+                }
+            }
+            synchronized (this) {
+                // Only the first thread to find the block exhausted reserves the next one.
+                if (block == current) {
+                    int start = reserveBlock(connection);
+                    block = new Block(start, start + blockSize);
+                }
+            }
+        }
+    }
+
+    /*
+     * This function reserves the next block from the sequence and returns its first ID.
+     */
+    private int reserveBlock(Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            resultSet = nextBlock.prepare(connection).executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("sequence returned no value for " + nextBlock);
+            }
+            return resultSet.getInt(1);
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+    }
+
+    /*
+     * A reserved range of IDs [next, end).
+     */
+    private static class Block {
+        private final AtomicInteger next;
+        private final int end;
+
+        Block(int start, int end) {
+            this.next = new AtomicInteger(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.List;
+
+/**
+ * This class is the request body of the batch join endpoints: a list of event or user IDs,
+ * wrapped in "ids" because Endpoints cannot take a bare list as a request body.
+ */
+public class IdBatch {
+
+    private List<Integer> ids;
+
+    public IdBatch() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public List<Integer> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Integer> ids) {
+        this.ids = ids;
+    }
+}
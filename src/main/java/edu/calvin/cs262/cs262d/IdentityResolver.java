@@ -0,0 +1,158 @@
+package edu.calvin.cs262.cs262d;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class turns the username:password tokens that clients pass to the endpoints into user IDs.
+ * Resolved usernames are cached for this instance, so an authenticated request normally needs
+ * no Users query. The cache holds up to maxSize usernames, evicting the least recently used.
+ * Entries expire after ttlMillis, which also bounds how long this instance can resolve a
+ * username that was changed or deleted through another App Engine instance.
+ * <p>
+ * UserResource calls userChanged after it modifies or deletes a user. A lookup that started
+ * before such a change is not cached, so it cannot put back the old mapping. Nor is a lookup made
+ * on a read replica, which may not have seen the change yet.
+ */
+public class IdentityResolver {
+
+    private static IdentityResolver instance;
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    // Guarded by this.
+    private final LinkedHashMap<String, CachedId> entries;
+    private long generation = 0;
+
+    /**
+     * This method returns the resolver shared by this instance. Its size and time-to-live come from
+     * the eventconnect.identity.size and eventconnect.identity.ttlMillis system properties.
+     */
+    public static synchronized IdentityResolver getInstance() {
+        if (instance == null) {
+            instance = new IdentityResolver(
+                    Integer.getInteger("eventconnect.identity.size", 1000),
+                    Long.getLong("eventconnect.identity.ttlMillis", 60000)
+            );
+        }
+        return instance;
+    }
+
+    public IdentityResolver(final int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, CachedId>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedId> eldest) {
+                return size() > IdentityResolver.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * This method returns the ID of the user named in the given token. It only queries the
+     * database, using the given connection, if the username is not cached.
+     *
+     * @param token username:password encoded in base64
+     * @param connection the connection of the request that needs the ID
+     * @return the ID of the user with the token's username
+     * @throws SQLException
+     */
+    public int resolve(String token, Connection connection) throws SQLException {
+        return resolve(token, connection, true);
+    }
+
+    /**
+     * This method returns the ID of the user named in the given token, as resolve does, but queries
+     * the given connection to a read replica if the username is not cached, and does not cache what
+     * the replica returns: a lagging replica could otherwise serve a changed or deleted username
+     * back to every request for the whole time-to-live.
+     *
+     * @param token username:password encoded in base64
+     * @param connection a connection from DataSourceRouter.getReadConnection
+     * @return the ID of the user with the token's username
+     * @throws SQLException
+     */
+    public int resolveOnReplica(String token, Connection connection) throws SQLException {
+        return resolve(token, connection, false);
+    }
+
+    /*
+     * This function returns the ID of the user named in the given token, from the cache or else from
+     * the given connection, and caches what the connection returns if cacheResult is true.
+     */
+    private int resolve(String token, Connection connection, boolean cacheResult) throws SQLException {
+        String username = usernameOf(token);
+        long stamp;
+        synchronized (this) {
+            CachedId entry = entries.get(username);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt <= ttlMillis) {
+                return entry.userID;
+            }
+            entries.remove(username);
+            stamp = generation;
+        }
+        int userID = selectUserId(username, connection);
+        synchronized (this) {
+            if (cacheResult && stamp == generation) {
+                entries.put(username, new CachedId(userID, System.currentTimeMillis()));
+            }
+        }
+        return userID;
+    }
+
+    /**
+     * This method forgets the username of the user with the given ID, which has just been
+     * modified or deleted.
+     */
+    public synchronized void userChanged(int userID) {
+        generation++;
+        entries.values().removeIf(entry -> entry.userID == userID);
+    }
+
+    /*
+     * This function returns the username part of a username:password token.
+     */
+    static String usernameOf(String token) {
+        String decoded = new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8);
+        return decoded.split(":")[0];
+    }
+
+    /*
+     * This function returns the userID from the Users table given a username.
+     */
+    private int selectUserId(String username, Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            PreparedStatement statement = Query.SELECT_USER_ID.prepare(connection);
+            statement.setString(1, username);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getInt(1);
+            }
+            throw new RuntimeException("failed to find user with the given username");
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+    }
+
+    /*
+     * A resolved user ID and the time it was read from the database.
+     */
+    private static class CachedId {
+        private final int userID;
+        private final long loadedAt;
+
+        CachedId(int userID, long loadedAt) {
+            this.userID = userID;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.server.spi.response.ConflictException;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * This class commits the joins and unjoins of concurrent requests together. When a popular event
+ * opens, hundreds of joins arrive within seconds, and committing each on its own makes every one
+ * wait for its own flush of the write-ahead log. Instead, the first request to arrive opens a batch
+ * and waits up to lingerMillis for others to add to it, or until it holds maxBatch operations; it then
+ * runs them all on one connection, in one transaction, while the others wait. Each request is
+ * answered once the batch has committed, with the same result as if it had run alone.
+ * <p>
+ * The operations run in the order of their event IDs, so batches lock events in the same order and
+ * cannot deadlock each other. If any of them fails, the batch is rolled back and each operation runs
+ * again in its own transaction, so one request's error is never given to the others. The time spent
+ * on a batch is counted in the RequestTimer of the request that ran it.
+ * <p>
+ * Group commit is off unless the eventconnect.joins.groupCommit system property is true, and is
+ * configured with eventconnect.joins.maxBatch and eventconnect.joins.lingerMillis. A batch size of 1
+ * also turns it off.
+ */
+public class JoinCommitter {
+
+    private static final Logger LOGGER = Logger.getLogger(JoinCommitter.class.getName());
+
+    private static JoinCommitter instance;
+
+    private final ConnectionPool pool;
+    private final IdentityResolver identities;
+    private final int maxBatch;
+    private final long lingerMillis;
+
+    // The number of batches of each size; and how long operations waited for their batch to start, and the batches took.
+    private final AtomicLongArray batchSizes;
+    private final LatencyHistogram waits = new LatencyHistogram();
+    private final LatencyHistogram commits = new LatencyHistogram();
+
+    // Guarded by this: the batch still taking operations, if any.
+    private Batch open = null;
+
+    /**
+     * This method returns the committer shared by this instance.
+     */
+    public static synchronized JoinCommitter getInstance() {
+        if (instance == null) {
+            instance = new JoinCommitter(
+                    ConnectionPool.getInstance(),
+                    IdentityResolver.getInstance(),
+                    Boolean.getBoolean("eventconnect.joins.groupCommit")
+                            ? Integer.getInteger("eventconnect.joins.maxBatch", 64) : 1,
+                    Long.getLong("eventconnect.joins.lingerMillis", 5)
+            );
+        }
+        return instance;
+    }
+
+    public JoinCommitter(ConnectionPool pool, IdentityResolver identities, int maxBatch, long lingerMillis) {
+        this.pool = pool;
+        this.identities = identities;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.lingerMillis = lingerMillis;
+        this.batchSizes = new AtomicLongArray(this.maxBatch + 1);
+    }
+
+    public boolean isEnabled() {
+        return maxBatch > 1;
+    }
+
+    /**
+     * This method joins the user in the token to an event, as EventResource.joinEvent does, in the next batch.
+     *
+     * @return the event with its new count, or null if there is no such event
+     * @throws ConflictException if the event is already at capacity
+     */
+    public Event join(int eventID, String token) throws SQLException, ConflictException {
+        Operation operation = submit(new Operation(true, eventID, token));
+        if (operation.full) {
+            throw new ConflictException("event " + eventID + " is full");
+        }
+        return operation.event;
+    }
+
+    /**
+     * This method removes the user in the token from an event, as EventResource.unjoinEvent does, in the next batch.
+     *
+     * @return the event with its new count, or null if there is no such event
+     */
+    public Event unjoin(int eventID, String token) throws SQLException {
+        return submit(new Operation(false, eventID, token)).event;
+    }
+
+    /**
+     * This method writes the batch metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writePrometheus(PrintWriter out) {
+        out.println("# HELP eventconnect_join_batch_size Joins and unjoins committed together.");
+        out.println("# TYPE eventconnect_join_batch_size histogram");
+        long count = 0;
+        long sum = 0;
+        for (int size = 1, limit = 1; size <= maxBatch; size++) {
+            count += batchSizes.get(size);
+            sum += size * batchSizes.get(size);
+            if (size == limit || size == maxBatch) {
+                out.println("eventconnect_join_batch_size_bucket{le=\"" + size + "\"} " + count);
+                limit *= 2;
+            }
+        }
+        out.println("eventconnect_join_batch_size_bucket{le=\"+Inf\"} " + count);
+        out.println("eventconnect_join_batch_size_sum " + sum);
+        out.println("eventconnect_join_batch_size_count " + count);
+
+        out.println("# HELP eventconnect_join_wait_seconds Time joins and unjoins waited for their batch to start.");
+        out.println("# TYPE eventconnect_join_wait_seconds histogram");
+        RequestMetrics.writeHistogram(out, "eventconnect_join_wait_seconds", "", waits);
+
+        out.println("# HELP eventconnect_join_commit_seconds Time to run and commit each batch of joins and unjoins.");
+        out.println("# TYPE eventconnect_join_commit_seconds histogram");
+        RequestMetrics.writeHistogram(out, "eventconnect_join_commit_seconds", "", commits);
+    }
+
+    /*
+     * This function adds an operation to the open batch, or opens one, and returns the operation once
+     * its batch has committed. The caller that opens a batch runs it.
+     */
+    private Operation submit(Operation operation) throws SQLException {
+        Batch batch;
+        boolean leader = false;
+        synchronized (this) {
+            if (open == null) {
+                open = new Batch();
+                leader = true;
+            }
+            batch = open;
+            batch.operations.add(operation);
+            if (batch.operations.size() >= maxBatch) {
+                open = null;
+                notifyAll();
+            }
+        }
+        if (leader) {
+            linger(batch);
+            run(batch);
+        } else {
+            batch.await();
+        }
+        if (operation.error instanceof SQLException) {
+            throw (SQLException) operation.error;
+        } else if (operation.error != null) {
+            throw (RuntimeException) operation.error;
+        }
+        return operation;
+    }
+
+    /*
+     * This function waits until the given batch is full or lingerMillis have passed, and closes it.
+     */
+    private synchronized void linger(Batch batch) {
+        long deadline = System.currentTimeMillis() + lingerMillis;
+        boolean interrupted = false;
+        while (open == batch) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+        }
+        if (open == batch) {
+            open = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * This function runs and commits a closed batch, and then answers the requests waiting for it.
+     */
+    private void run(Batch batch) {
+        long start = System.nanoTime();
+        List<Operation> operations = new ArrayList<Operation>(batch.operations);
+        for (Operation operation : operations) {
+            waits.recordNanos(start - operation.submittedAt);
+        }
+        batchSizes.incrementAndGet(operations.size());
+        Connection connection = null;
+        try {
+            connection = pool.getConnection();
+            List<Operation> resolved = new ArrayList<Operation>();
+            for (Operation operation : operations) {
+                try {
+                    operation.userID = identities.resolve(operation.token, connection);
+                    resolved.add(operation);
+                } catch (SQLException | RuntimeException e) {
+                    // Such as a token naming no user: only its own request fails.
+                    operation.error = e;
+                }
+            }
+            Collections.sort(resolved, Comparator.comparingInt(operation -> operation.eventID));
+            connection.setAutoCommit(false);
+            try {
+                for (Operation operation : resolved) {
+                    execute(operation, connection);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                // Such as a user deleted since their token was resolved: run each operation alone.
+                LOGGER.info("a batch of " + resolved.size() + " joins failed, committing them one by one: " + e);
+                connection.rollback();
+                connection.setAutoCommit(true);
+                for (Operation operation : resolved) {
+                    try {
+                        execute(operation, connection);
+                    } catch (SQLException retryError) {
+                        operation.error = retryError;
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (Operation operation : operations) {
+                if (operation.error == null) {
+                    operation.error = e;
+                }
+            }
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOGGER.warning("failed to return a join batch's connection: " + e);
+                }
+            }
+            commits.recordNanos(System.nanoTime() - start);
+            batch.finish();
+        }
+    }
+
+    /*
+     * This function runs one join or unjoin on the given connection, with JOIN_EVENT or UNJOIN_EVENT.
+     */
+    private static void execute(Operation operation, Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        operation.event = null;
+        operation.full = false;
+        try {
+            PreparedStatement statement;
+            if (operation.join) {
+                statement = Query.JOIN_EVENT.prepare(connection);
+                statement.setInt(1, operation.eventID);
+                statement.setInt(2, operation.userID);
+                statement.setInt(3, operation.userID);
+                statement.setInt(4, operation.eventID);
+            } else {
+                statement = Query.UNJOIN_EVENT.prepare(connection);
+                statement.setInt(1, operation.eventID);
+                statement.setInt(2, operation.userID);
+                statement.setInt(3, operation.eventID);
+                statement.setInt(4, operation.userID);
+                statement.setInt(5, operation.eventID);
+            }
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                operation.full = operation.join && resultSet.getBoolean("Full");
+                operation.event = operation.full ? null : Event.fromResultSet(resultSet);
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+    }
+
+    /*
+     * One request's join or unjoin, and its result once its batch has run.
+     */
+    private static class Operation {
+        private final boolean join;
+        private final int eventID;
+        private final String token;
+        private final long submittedAt = System.nanoTime();
+
+        // Written by the thread running the batch before Batch.finish, read by the waiting request after.
+        private int userID;
+        private Event event;
+        private boolean full;
+        private Exception error;
+
+        Operation(boolean join, int eventID, String token) {
+            this.join = join;
+            this.eventID = eventID;
+            this.token = token;
+        }
+    }
+
+    /*
+     * The operations committed together, guarded by JoinCommitter.this until the batch is closed.
+     */
+    private static class Batch {
+        private final List<Operation> operations = new ArrayList<Operation>();
+        private boolean done = false;
+
+        synchronized void finish() {
+            done = true;
+            notifyAll();
+        }
+
+        /*
+         * This function waits until the batch has run. The batch may already have committed the caller's
+         * operation, so an interrupt does not end the wait; it is kept for the caller to see.
+         */
+        synchronized void await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.calvin.cs262.cs262d;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts durations in microseconds in log-linear buckets, as HdrHistogram does: every power
+ * of two is split into SUB_BUCKETS equal buckets, so any recorded value is known to within 1/SUB_BUCKETS
+ * (12.5%) of itself, from a microsecond up to days, in a fixed few hundred counters. Recording is a
+ * couple of atomic increments and never allocates, so it is cheap enough for every request.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough magnitudes for any long value.
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    /**
+     * This method records one duration, in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        sumMicros.addAndGet(micros);
+    }
+
+    /**
+     * This method returns a copy of the bucket counts, for reading several statistics from one moment.
+     */
+    public long[] snapshot() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    public long getSumMicros() {
+        return sumMicros.get();
+    }
+
+    /**
+     * This method returns how many of the counted values in a snapshot are at most the given number of microseconds.
+     * Values in the bucket that straddles the limit are left out.
+     */
+    public static long countAtMost(long[] snapshot, long micros) {
+        long result = 0;
+        for (int i = 0; i < snapshot.length && upperBound(i) - 1 <= micros; i++) {
+            result += snapshot[i];
+        }
+        return result;
+    }
+
+    /**
+     * This method returns the given quantile of the values in a snapshot, in microseconds, as the highest
+     * value of the bucket it falls in, or 0 if nothing has been recorded.
+     */
+    public static long quantile(long[] snapshot, double quantile) {
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * This function returns the bucket of a value: values below SUB_BUCKETS have a bucket each, and
+     * each higher power of two is split by the SUB_BUCKET_BITS bits after its leading one.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /*
+     * This function returns the lowest value above the given bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long upper = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift;
+        return (upper <= 0) ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,159 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.server.spi.config.ApiMethod;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This filter times every request to an API method of EventResource and UserResource and records it in
+ * RequestMetrics under the method's name. The request's RequestTimer collects the time spent waiting for
+ * connections, running statements and mapping rows; serialization is timed from when the endpoint starts
+ * writing its response until the response is complete.
+ * <p>
+ * Requests are matched to API methods by the paths in their ApiMethod annotations, so requests for other
+ * paths (and to AdminResource) are not timed.
+ */
+public class MetricsFilter implements Filter {
+
+    private static final String API_PREFIX = "/_ah/api/eventconnect/v1/";
+    private static final Class<?>[] TIMED_RESOURCES = {EventResource.class, UserResource.class};
+
+    private final List<Route> routes = new ArrayList<Route>();
+    private RequestMetrics metrics;
+
+    @Override
+    public void init(FilterConfig config) {
+        metrics = RequestMetrics.getInstance();
+        for (Class<?> resource : TIMED_RESOURCES) {
+            for (Method method : resource.getMethods()) {
+                ApiMethod api = method.getAnnotation(ApiMethod.class);
+                if (api != null) {
+                    routes.add(new Route(api.httpMethod(), api.path(),
+                            resource.getSimpleName() + "." + method.getName()));
+                }
+            }
+        }
+        // Try the routes with more fixed segments first, so events/search wins over events/{token}.
+        routes.sort((a, b) -> Integer.compare(b.literals, a.literals));
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String endpoint = endpointFor(httpRequest.getMethod(), httpRequest.getRequestURI());
+        if (endpoint == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        RequestTimer timer = RequestTimer.start();
+        TimedResponse timed = new TimedResponse((HttpServletResponse) response);
+        int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        try {
+            chain.doFilter(request, timed);
+            status = timed.getStatus();
+        } finally {
+            long end = System.nanoTime();
+            timer.stop();
+            long serialization = (timed.writeStart == 0) ? 0 : end - timed.writeStart;
+            metrics.record(endpoint, status, end - start, serialization, timer);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /*
+     * This function returns the name of the API method serving a request, or null if it is not timed.
+     */
+    private String endpointFor(String httpMethod, String uri) {
+        if (uri == null || !uri.startsWith(API_PREFIX)) {
+            return null;
+        }
+        String[] segments = uri.substring(API_PREFIX.length()).split("/");
+        for (Route route : routes) {
+            if (route.matches(httpMethod, segments)) {
+                return route.endpoint;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * An API method's HTTP method and path, split into segments; a {parameter} segment matches any segment.
+     */
+    private static class Route {
+        private final String httpMethod;
+        private final String[] segments;
+        private final String endpoint;
+        private final int literals;
+
+        Route(String httpMethod, String path, String endpoint) {
+            this.httpMethod = httpMethod;
+            this.segments = path.split("/");
+            this.endpoint = endpoint;
+            int count = 0;
+            for (String segment : segments) {
+                if (!segment.startsWith("{")) {
+                    count++;
+                }
+            }
+            this.literals = count;
+        }
+
+        boolean matches(String method, String[] requested) {
+            if (!httpMethod.equals(method) || requested.length != segments.length) {
+                return false;
+            }
+            for (int i = 0; i < segments.length; i++) {
+                if (requested[i].isEmpty() || (!segments[i].startsWith("{") && !segments[i].equals(requested[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * A response that notes when the endpoint starts writing its body.
+     */
+    private static class TimedResponse extends HttpServletResponseWrapper {
+        private long writeStart;
+
+        TimedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writeStart == 0) {
+                writeStart = System.nanoTime();
+            }
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writeStart == 0) {
+                writeStart = System.nanoTime();
+            }
+            return super.getWriter();
+        }
+    }
+}
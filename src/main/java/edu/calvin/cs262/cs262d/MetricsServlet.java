@@ -0,0 +1,28 @@
+package edu.calvin.cs262.cs262d;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * This servlet exports this instance's RequestMetrics, and the counters of its JoinCommitter and
+ * AdmissionController, in the Prometheus text format at /admin/metrics, which web.xml restricts to
+ * project administrators. It is a plain servlet because Endpoints only returns JSON.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Cache-Control", "no-store");
+        PrintWriter out = response.getWriter();
+        RequestMetrics.getInstance().writePrometheus(out);
+        JoinCommitter.getInstance().writePrometheus(out);
+        AdmissionController.getInstance().writePrometheus(out);
+        out.flush();
+    }
+}
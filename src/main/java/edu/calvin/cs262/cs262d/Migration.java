@@ -0,0 +1,65 @@
+package edu.calvin.cs262.cs262d;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This enumeration lists the changes made to the EventConnect schema since EventConnect.sql first
+ * created it, in the order they are applied. Each migration's SQL is a resource under db/.
+ * SchemaMigrator records the versions applied to a database in its SchemaVersion table.
+ * <p>
+ * To change the schema, add a constant with the next version and its SQL file, and make the same
+ * change in EventConnect.sql, which builds the current schema from scratch and marks every
+ * migration as applied. Never edit a migration that has been deployed.
+ */
+public enum Migration {
+
+    ID_SEQUENCES(1, "V1__id_sequences.sql"),
+    JOINED_EVENTS_KEY(2, "V2__joined_events_key.sql"),
+    PARTICIPANT_COUNTS(3, "V3__participant_counts.sql"),
+    QUERY_INDEXES(4, "V4__query_indexes.sql"),
+    CATEGORY_INDEX(5, "V5__category_index.sql"),
+    EVENT_CHANGES(6, "V6__event_changes.sql"),
+    WAITLIST(7, "V7__waitlist.sql"),
+    EVENT_STATE(8, "V8__event_state.sql"),
+    UNJOINED_EVENTS_PENDING(9, "V9__unjoined_events_pending.sql");
+
+    private final int version;
+    private final String file;
+
+    Migration(int version, String file) {
+        this.version = version;
+        this.file = file;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * This method returns the migration's SQL, which may hold several statements.
+     */
+    public String getSql() throws IOException {
+        InputStream in = Migration.class.getResourceAsStream("/db/" + file);
+        if (in == null) {
+            throw new IOException("missing migration resource db/" + file);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
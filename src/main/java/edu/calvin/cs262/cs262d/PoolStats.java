@@ -0,0 +1,71 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class holds a snapshot of the connection pool's size and usage counters,
+ * as reported by the admin/pool endpoint.
+ */
+public class PoolStats {
+
+    private int maxSize;
+    private int active;
+    private int idle;
+    private long created;
+    private long borrowed;
+    private long timeouts;
+    private long validationFailures;
+    private long leaks;
+    private double averageWaitMillis;
+
+    public PoolStats() {
+        // The JSON marshaller used by Endpoints requires this default constructor.
+    }
+
+    public PoolStats(int maxSize, int active, int idle, long created, long borrowed, long timeouts,
+                     long validationFailures, long leaks, double averageWaitMillis) {
+        this.maxSize = maxSize;
+        this.active = active;
+        this.idle = idle;
+        this.created = created;
+        this.borrowed = borrowed;
+        this.timeouts = timeouts;
+        this.validationFailures = validationFailures;
+        this.leaks = leaks;
+        this.averageWaitMillis = averageWaitMillis;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getBorrowed() {
+        return borrowed;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getValidationFailures() {
+        return validationFailures;
+    }
+
+    public long getLeaks() {
+        return leaks;
+    }
+
+    public double getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+}
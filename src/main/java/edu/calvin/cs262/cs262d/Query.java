@@ -0,0 +1,509 @@
+package edu.calvin.cs262.cs262d;
+
+import org.postgresql.PGStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * This enumeration declares every SQL statement the EventConnect server runs, by name.
+ * Parameters are bound with JDBC placeholders rather than formatted into the SQL text, so
+ * Postgres can parse and plan each statement once per connection and reuse the plan.
+ * <p>
+ * Statements returned by prepare() are cached on the pooled connection they were prepared on
+ * and must not be closed by the caller; close only the ResultSets they produce.
+ */
+public enum Query {
+
+    SELECT_EVENTS(
+            Fragment.EVENT_ROWS +
+                    "ORDER BY Events.Time, Events.ID"),
+    // The timed events from a (Time, ID) position up to a time, as a single range of EventsByTime.
+    SELECT_EVENTS_WINDOW(
+            Fragment.EVENT_ROWS +
+                    "WHERE (Events.Time, Events.ID) >= (?, ?) AND Events.Time < ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    // As SELECT_EVENTS_WINDOW, for the events of one category, as a single range of EventsByCategory.
+    SELECT_CATEGORY_WINDOW(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.Category=? AND (Events.Time, Events.ID) >= (?, ?) AND Events.Time < ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    // As SELECT_EVENTS_WINDOW, for the events in one state, as a single range of EventsByState.
+    SELECT_STATE_WINDOW(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.State=? AND (Events.Time, Events.ID) >= (?, ?) AND Events.Time < ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    // Summary forms of the list queries, for view=summary: the same rows without their descriptions.
+    SELECT_EVENTS_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "ORDER BY Events.Time, Events.ID"),
+    SELECT_EVENTS_WINDOW_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE (Events.Time, Events.ID) >= (?, ?) AND Events.Time < ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_CATEGORY_WINDOW_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE Events.Category=? AND (Events.Time, Events.ID) >= (?, ?) AND Events.Time < ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_STATE_WINDOW_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE Events.State=? AND (Events.Time, Events.ID) >= (?, ?) AND Events.Time < ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    // The untimed events from an ID on, which follow the timed ones in (Time, ID) order; listings
+    // without a time bound continue with these. Ordering by the (NULL) time too keeps to the index order.
+    SELECT_UNTIMED_EVENTS(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.Time IS NULL AND Events.ID >= ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_UNTIMED_CATEGORY_EVENTS(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.Category=? AND Events.Time IS NULL AND Events.ID >= ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_UNTIMED_STATE_EVENTS(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.State=? AND Events.Time IS NULL AND Events.ID >= ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_UNTIMED_EVENTS_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE Events.Time IS NULL AND Events.ID >= ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_UNTIMED_CATEGORY_EVENTS_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE Events.Category=? AND Events.Time IS NULL AND Events.ID >= ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_UNTIMED_STATE_EVENTS_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE Events.State=? AND Events.Time IS NULL AND Events.ID >= ? " +
+                    "ORDER BY Events.Time, Events.ID " +
+                    "LIMIT ?"),
+    SELECT_EVENTS_BY_ID_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "WHERE Events.ID = ANY (?)"),
+    SELECT_EVENT_CATEGORIES(
+            "SELECT ID, Time, Category FROM Events WHERE Category IS NOT NULL"),
+    SELECT_CATEGORY_COUNTS(
+            "SELECT Category, COUNT(*) FROM Events WHERE Category IS NOT NULL " +
+                    "GROUP BY Category ORDER BY Category"),
+    SELECT_EVENT(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.ID=?"),
+    SELECT_EVENTS_BY_ID(
+            Fragment.EVENT_ROWS +
+                    "WHERE Events.ID = ANY (?)"),
+    SELECT_EVENT_ID_RANGE(
+            "SELECT MIN(ID), MAX(ID) FROM Events"),
+    SELECT_EVENT_TEXT(
+            "SELECT ID, Title, Description, Location FROM Events WHERE ID BETWEEN ? AND ?"),
+    NEXT_EVENT_ID_BLOCK(
+            "SELECT nextval('EventIDs')"),
+    INSERT_EVENT(
+            "INSERT INTO Events (ID, UserID, Title, Description, Time, Location, Cost, Threshold, Capacity, Category) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (ID) DO NOTHING"),
+    // Inserts an event and returns it as stored, or nothing if the ID is already taken.
+    INSERT_EVENT_RETURNING(
+            "INSERT INTO Events (ID, UserID, Title, Description, Time, Location, Cost, Threshold, Capacity, Category) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (ID) DO NOTHING " +
+                    "RETURNING " + Fragment.EVENT_COLUMNS),
+    // Updates the fields given of an event, or creates it if it does not exist, and returns it as
+    // stored, in one statement. The parameters are the eight editable fields and the ID, for the
+    // update, followed by those of INSERT_EVENT. INSERT ... ON CONFLICT DO UPDATE cannot be used:
+    // Postgres checks the NOT NULL columns of the row to insert before it finds the conflict,
+    // so a partial update would fail. If a concurrent statement creates the event first,
+    // nothing is returned and the caller retries.
+    UPSERT_EVENT(
+            "WITH Updated AS (" +
+                    Fragment.UPDATE_EVENT +
+                    "RETURNING " + Fragment.EVENT_COLUMNS + "), " +
+                    "Inserted AS (" +
+                    "INSERT INTO Events (ID, UserID, Title, Description, Time, Location, Cost, Threshold, Capacity, Category) " +
+                    "SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Updated) " +
+                    "ON CONFLICT (ID) DO NOTHING " +
+                    "RETURNING " + Fragment.EVENT_COLUMNS + ") " +
+                    "SELECT * FROM Updated " +
+                    "UNION ALL " +
+                    "SELECT * FROM Inserted"),
+    DELETE_EVENT(
+            "DELETE FROM Events WHERE ID=?"),
+    // Joins a user to an event and returns the event with its new count, in one statement.
+    // Locking the event row serializes concurrent joins, so the capacity check and the
+    // counter update cannot interleave; the primary key on JoinedEvents rejects duplicates.
+    // If nothing was inserted, the event is returned unchanged, with Full set if the join
+    // was refused because the event is at capacity.
+    JOIN_EVENT(
+            "WITH Target AS (" +
+                    "SELECT ID FROM Events " +
+                    "WHERE ID=? AND (COALESCE(Capacity, 0) <= 0 OR Participants < Capacity) " +
+                    "FOR UPDATE), " +
+                    "Joined AS (" +
+                    "INSERT INTO JoinedEvents (EventID, UserID) SELECT Target.ID, ? FROM Target " +
+                    "ON CONFLICT (EventID, UserID) DO NOTHING " +
+                    "RETURNING EventID), " +
+                    "Counted AS (" +
+                    "UPDATE Events SET Participants=Participants + 1 FROM Joined " +
+                    "WHERE Events.ID=Joined.EventID " +
+                    "RETURNING " + Fragment.EVENT_COLUMNS + ") " +
+                    "SELECT " + Fragment.EVENT_COLUMNS + ", FALSE AS Full FROM Counted " +
+                    "UNION ALL " +
+                    "SELECT " + Fragment.EVENT_COLUMNS + ", " +
+                    "(COALESCE(Capacity, 0) > 0 AND Participants >= Capacity " +
+                    "AND NOT EXISTS (SELECT 1 FROM JoinedEvents WHERE EventID=Events.ID AND UserID=?)) AS Full " +
+                    "FROM Events WHERE ID=? AND NOT EXISTS (SELECT 1 FROM Counted)"),
+    // Removes a user from an event, or from its waitlist, and returns the event with its new
+    // count, in one statement. The seat a leaving user frees goes to the first waiting user.
+    UNJOIN_EVENT(
+            "WITH Removed AS (" +
+                    "DELETE FROM JoinedEvents WHERE EventID=? AND UserID=? " +
+                    "RETURNING EventID), " +
+                    Fragment.LEAVE_AND_PROMOTE + ", " +
+                    "Counted AS (" +
+                    "UPDATE Events SET Participants=Participants - 1 + (SELECT COUNT(*) FROM Enrolled) FROM Removed " +
+                    "WHERE Events.ID=Removed.EventID " +
+                    "RETURNING " + Fragment.EVENT_COLUMNS + ") " +
+                    "SELECT " + Fragment.EVENT_COLUMNS + " FROM Counted " +
+                    "UNION ALL " +
+                    "SELECT " + Fragment.EVENT_COLUMNS + " " +
+                    "FROM Events WHERE ID=? AND NOT EXISTS (SELECT 1 FROM Counted)"),
+    // Batched forms of JOIN_EVENT and UNJOIN_EVENT. They end in an UPDATE without RETURNING, so
+    // executeBatch reports 1 for each pair that joined (or left) and 0 for each that did not.
+    // A missing user joins nothing rather than failing the whole batch on the foreign key.
+    JOIN_EVENT_BATCHED(
+            "WITH Target AS (" +
+                    "SELECT ID FROM Events " +
+                    "WHERE ID=? AND (COALESCE(Capacity, 0) <= 0 OR Participants < Capacity) " +
+                    "FOR UPDATE), " +
+                    "Joined AS (" +
+                    "INSERT INTO JoinedEvents (EventID, UserID) " +
+                    "SELECT Target.ID, Users.ID FROM Target, Users WHERE Users.ID=? " +
+                    "ON CONFLICT (EventID, UserID) DO NOTHING " +
+                    "RETURNING EventID) " +
+                    "UPDATE Events SET Participants=Participants + 1 FROM Joined " +
+                    "WHERE Events.ID=Joined.EventID"),
+    UNJOIN_EVENT_BATCHED(
+            "WITH Removed AS (" +
+                    "DELETE FROM JoinedEvents WHERE EventID=? AND UserID=? " +
+                    "RETURNING EventID), " +
+                    Fragment.LEAVE_AND_PROMOTE + " " +
+                    "UPDATE Events SET Participants=Participants - 1 + (SELECT COUNT(*) FROM Enrolled) FROM Removed " +
+                    "WHERE Events.ID=Removed.EventID"),
+    // Enrolls the users waiting for an event, in Seq order, in the seats it has free (all of them if
+    // it has no capacity), as when its capacity is raised or a participant is deleted, and returns
+    // the event with its new count if anyone was enrolled.
+    PROMOTE_WAITLIST(
+            "WITH Target AS (" +
+                    "SELECT ID, CASE WHEN COALESCE(Capacity, 0) <= 0 THEN NULL " +
+                    "ELSE GREATEST(Capacity - Participants, 0) END AS Free " +
+                    "FROM Events WHERE ID=? " +
+                    "FOR UPDATE), " +
+                    "Waiting AS (" +
+                    "SELECT EventID, UserID FROM Waitlist " +
+                    "WHERE EventID IN (SELECT ID FROM Target) " +
+                    "AND NOT EXISTS (SELECT 1 FROM JoinedEvents " +
+                    "WHERE JoinedEvents.EventID=Waitlist.EventID AND JoinedEvents.UserID=Waitlist.UserID) " +
+                    "ORDER BY Seq LIMIT (SELECT Free FROM Target) " +
+                    "FOR UPDATE SKIP LOCKED), " +
+                    "Promoted AS (" +
+                    "DELETE FROM Waitlist USING Waiting " +
+                    "WHERE Waitlist.EventID=Waiting.EventID AND Waitlist.UserID=Waiting.UserID " +
+                    "RETURNING Waitlist.EventID, Waitlist.UserID), " +
+                    "Enrolled AS (" +
+                    "INSERT INTO JoinedEvents (EventID, UserID) SELECT EventID, UserID FROM Promoted " +
+                    "ON CONFLICT (EventID, UserID) DO NOTHING " +
+                    "RETURNING EventID) " +
+                    "UPDATE Events SET Participants=Participants + (SELECT COUNT(*) FROM Enrolled) " +
+                    "WHERE ID IN (SELECT ID FROM Target) AND EXISTS (SELECT 1 FROM Enrolled) " +
+                    "RETURNING " + Fragment.EVENT_COLUMNS),
+    // Adds a user to the waitlist of a full event they have not joined, and returns a row if they are on it.
+    WAITLIST_USER(
+            "INSERT INTO Waitlist (EventID, UserID) " +
+                    "SELECT ID, ? FROM Events " +
+                    "WHERE ID=? AND COALESCE(Capacity, 0) > 0 AND Participants >= Capacity " +
+                    "AND NOT EXISTS (SELECT 1 FROM JoinedEvents WHERE EventID=? AND UserID=?) " +
+                    "ON CONFLICT (EventID, UserID) DO UPDATE SET Seq=Waitlist.Seq " +
+                    "RETURNING Seq"),
+    SELECT_JOINED(
+            "SELECT 1 FROM JoinedEvents WHERE EventID=? AND UserID=?"),
+    SELECT_JOINED_EVENT_IDS(
+            "SELECT EventID FROM JoinedEvents WHERE UserID=? AND EventID = ANY (?)"),
+    SELECT_JOINED_USER_IDS(
+            "SELECT UserID FROM JoinedEvents WHERE EventID=? AND UserID = ANY (?)"),
+    REMOVE_USER_PARTICIPATION(
+            "UPDATE Events SET Participants=Participants - 1 " +
+                    "WHERE ID IN (SELECT EventID FROM JoinedEvents WHERE UserID=?) " +
+                    "RETURNING " + Fragment.EVENT_COLUMNS),
+    RECONCILE_PARTICIPANTS(
+            "WITH Counted AS (" +
+                    "SELECT Events.ID, Events.Participants AS Stored, COUNT (JoinedEvents.EventID) AS Actual " +
+                    "FROM Events " +
+                    "LEFT JOIN JoinedEvents ON JoinedEvents.EventID=Events.ID " +
+                    "GROUP BY Events.ID) " +
+                    "UPDATE Events SET Participants=Counted.Actual " +
+                    "FROM Counted " +
+                    "WHERE Events.ID=Counted.ID AND Counted.Stored <> Counted.Actual " +
+                    "RETURNING Events.ID, Counted.Stored, Counted.Actual"),
+    SELECT_USER_EVENTS(
+            Fragment.EVENT_ROWS +
+                    "JOIN JoinedEvents ON JoinedEvents.EventID=Events.ID " +
+                    "WHERE JoinedEvents.UserID=? " +
+                    "ORDER BY Events.Time, Events.ID"),
+    SELECT_USER_EVENTS_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "JOIN JoinedEvents ON JoinedEvents.EventID=Events.ID " +
+                    "WHERE JoinedEvents.UserID=? " +
+                    "ORDER BY Events.Time, Events.ID"),
+    // The events a user has joined that will take place: confirmed ones, and full ones, which are confirmed too.
+    SELECT_USER_CONFIRMED_EVENTS(
+            Fragment.EVENT_ROWS +
+                    "JOIN JoinedEvents ON JoinedEvents.EventID=Events.ID " +
+                    "WHERE JoinedEvents.UserID=? AND Events.State IN ('confirmed', 'full') " +
+                    "ORDER BY Events.Time, Events.ID"),
+    SELECT_USER_CONFIRMED_EVENTS_SUMMARY(
+            Fragment.EVENT_SUMMARY_ROWS +
+                    "JOIN JoinedEvents ON JoinedEvents.EventID=Events.ID " +
+                    "WHERE JoinedEvents.UserID=? AND Events.State IN ('confirmed', 'full') " +
+                    "ORDER BY Events.Time, Events.ID"),
+    SELECT_USERS(
+            "SELECT ID, Username FROM Users"),
+    SELECT_USER(
+            "SELECT ID, Username FROM Users WHERE ID=?"),
+    SELECT_USER_ID(
+            "SELECT ID FROM Users WHERE Username=?"),
+    SELECT_USER_IDS(
+            "SELECT ID FROM Users WHERE ID = ANY (?)"),
+    NEXT_USER_ID_BLOCK(
+            "SELECT nextval('UserIDs')"),
+    INSERT_USER(
+            "INSERT INTO Users (ID, Username, Password) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (ID) DO NOTHING " +
+                    "RETURNING ID, Username"),
+    // As UPSERT_EVENT, for users: Username, Password and ID for the update, then INSERT_USER's parameters.
+    UPSERT_USER(
+            "WITH Updated AS (" +
+                    Fragment.UPDATE_USER +
+                    "RETURNING ID, Username), " +
+                    "Inserted AS (" +
+                    "INSERT INTO Users (ID, Username, Password) " +
+                    "SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Updated) " +
+                    "ON CONFLICT (ID) DO NOTHING " +
+                    "RETURNING ID, Username) " +
+                    "SELECT * FROM Updated " +
+                    "UNION ALL " +
+                    "SELECT * FROM Inserted"),
+    DELETE_USER(
+            "DELETE FROM Users WHERE ID=?"),
+    // The change log written by the EventsChanged trigger. Every transaction with an ID below the
+    // watermark has finished, so the changes below it are complete; GET events/changes reads up to it.
+    SELECT_CHANGE_WATERMARK(
+            "SELECT txid_snapshot_xmin(txid_current_snapshot())"),
+    SELECT_CHANGE_HORIZON(
+            "SELECT TxID FROM EventChangeHorizon"),
+    // The events changed in a range of transactions: whether each was deleted, and otherwise whether
+    // anything other than its participant count changed.
+    SELECT_EVENT_CHANGES(
+            "SELECT EventID, bool_or(Kind = 'D'), bool_or(Kind IN ('I', 'U')) " +
+                    "FROM EventChanges WHERE TxID >= ? AND TxID < ? " +
+                    "GROUP BY EventID " +
+                    "LIMIT ?"),
+    SELECT_WATCHED_EVENT_CHANGES(
+            "SELECT EventID, bool_or(Kind = 'D'), bool_or(Kind IN ('I', 'U')) " +
+                    "FROM EventChanges WHERE TxID >= ? AND TxID < ? AND EventID = ANY (?) " +
+                    "GROUP BY EventID"),
+    // Deletes each change that a later change to the same event, in the same or a later
+    // transaction, makes redundant; a reader that would have seen it sees the later one.
+    // A surviving count-only change that stood in for an insert or update becomes an update.
+    COLLAPSE_EVENT_CHANGES(
+            "WITH Redundant AS (" +
+                    "DELETE FROM EventChanges Old WHERE EXISTS (" +
+                    "SELECT 1 FROM EventChanges Later WHERE Later.EventID=Old.EventID " +
+                    "AND Later.TxID >= Old.TxID AND Later.Seq > Old.Seq) " +
+                    "RETURNING Old.Seq, Old.TxID, Old.EventID, Old.Kind), " +
+                    "Upgraded AS (" +
+                    "UPDATE EventChanges SET Kind='U' " +
+                    "WHERE Kind='C' AND Seq NOT IN (SELECT Seq FROM Redundant) AND EXISTS (" +
+                    "SELECT 1 FROM Redundant WHERE Redundant.EventID=EventChanges.EventID " +
+                    "AND Redundant.Kind IN ('I', 'U') " +
+                    "AND EventChanges.TxID >= Redundant.TxID AND EventChanges.Seq > Redundant.Seq) " +
+                    "RETURNING Seq) " +
+                    "SELECT COUNT(*) FROM Redundant"),
+    // Deletes the deletions older than the given time and moves the horizon past them,
+    // returning the new horizon and the number deleted.
+    DROP_EVENT_TOMBSTONES(
+            "WITH Dropped AS (" +
+                    "DELETE FROM EventChanges WHERE Kind='D' AND ChangedAt < ? " +
+                    "RETURNING TxID) " +
+                    "UPDATE EventChangeHorizon SET TxID=GREATEST(TxID, (SELECT MAX(TxID) + 1 FROM Dropped)) " +
+                    "RETURNING TxID, (SELECT COUNT(*) FROM Dropped)"),
+    // Schema versions applied by SchemaMigrator. The lock keeps two instances from migrating at once.
+    LOCK_SCHEMA(
+            "SELECT pg_advisory_xact_lock(?)"),
+    CREATE_SCHEMA_VERSION(
+            "CREATE TABLE IF NOT EXISTS SchemaVersion (" +
+                    "Version integer PRIMARY KEY, " +
+                    "Name Varchar(100) NOT NULL, " +
+                    "AppliedAt timestamp NOT NULL DEFAULT now())"),
+    SELECT_SCHEMA_VERSIONS(
+            "SELECT Version FROM SchemaVersion"),
+    INSERT_SCHEMA_VERSION(
+            "INSERT INTO SchemaVersion (Version, Name) VALUES (?, ?)");
+
+    /*
+     * SQL text shared by several statements. Enum constants cannot refer to the enum's own
+     * static fields while they are being constructed, so these live in a nested class.
+     */
+    private static class Fragment {
+        // Event columns in Event.fromResultSet order. The count is the maintained Participants
+        // column, which JOIN_EVENT and UNJOIN_EVENT keep in step with JoinedEvents.
+        static final String EVENT_COLUMNS =
+                "ID, UserID, Title, Description, Time, Location, Cost, Threshold, Capacity, Category, Participants";
+        static final String EVENT_ROWS =
+                "SELECT Events.ID, Events.UserID, Events.Title, Events.Description, Events.Time, " +
+                        "Events.Location, Events.Cost, Events.Threshold, Events.Capacity, Events.Category, " +
+                        "Events.Participants " +
+                        "FROM Events ";
+        // As EVENT_ROWS, with NULL in place of the description, which list views do not show
+        // and which is the longest column; Event.fromResultSet reads the rows unchanged.
+        static final String EVENT_SUMMARY_ROWS =
+                "SELECT Events.ID, Events.UserID, Events.Title, NULL AS Description, Events.Time, " +
+                        "Events.Location, Events.Cost, Events.Threshold, Events.Capacity, Events.Category, " +
+                        "Events.Participants " +
+                        "FROM Events ";
+        // Follows a Removed CTE of the JoinedEvents rows a user left. Takes the user off the event's
+        // waitlist, and enrolls the longest-waiting user (Enrolled) in the seat a removal freed,
+        // unless the event is over capacity.
+        static final String LEAVE_AND_PROMOTE =
+                "Unlisted AS (" +
+                        "DELETE FROM Waitlist WHERE EventID=? AND UserID=?), " +
+                        "Waiting AS (" +
+                        "SELECT EventID, UserID FROM Waitlist " +
+                        "WHERE EventID IN (SELECT EventID FROM Removed) " +
+                        "AND EXISTS (SELECT 1 FROM Events " +
+                        "WHERE ID IN (SELECT EventID FROM Removed) AND Participants <= Capacity) " +
+                        "AND NOT EXISTS (SELECT 1 FROM JoinedEvents " +
+                        "WHERE JoinedEvents.EventID=Waitlist.EventID AND JoinedEvents.UserID=Waitlist.UserID) " +
+                        "ORDER BY Seq LIMIT 1 " +
+                        "FOR UPDATE SKIP LOCKED), " +
+                        "Promoted AS (" +
+                        "DELETE FROM Waitlist USING Waiting " +
+                        "WHERE Waitlist.EventID=Waiting.EventID AND Waitlist.UserID=Waiting.UserID " +
+                        "RETURNING Waitlist.EventID, Waitlist.UserID), " +
+                        "Enrolled AS (" +
+                        "INSERT INTO JoinedEvents (EventID, UserID) SELECT EventID, UserID FROM Promoted " +
+                        "ON CONFLICT (EventID, UserID) DO NOTHING " +
+                        "RETURNING EventID)";
+        // Fields left NULL keep their current values.
+        static final String UPDATE_EVENT =
+                "UPDATE Events " +
+                        "SET Title=COALESCE(?, Events.Title), " +
+                        "Description=COALESCE(?, Events.Description), " +
+                        "Time=COALESCE(?, Events.Time), " +
+                        "Location=COALESCE(?, Events.Location), " +
+                        "Cost=COALESCE(?, Events.Cost), " +
+                        "Threshold=COALESCE(?, Events.Threshold), " +
+                        "Capacity=COALESCE(?, Events.Capacity), " +
+                        "Category=COALESCE(?, Events.Category) " +
+                        "WHERE ID=? ";
+        static final String UPDATE_USER =
+                "UPDATE Users " +
+                        "SET Username=COALESCE(?, Users.Username), " +
+                        "Password=COALESCE(?, Users.Password) " +
+                        "WHERE ID=? ";
+    }
+
+    private final String sql;
+
+    Query(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * This method returns this statement prepared on the given connection. Pooled connections
+     * prepare each statement once and hand back the cached statement on later calls.
+     *
+     * @param connection a connection borrowed from the ConnectionPool
+     * @return the prepared statement, with its previous parameters and batch cleared
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(Connection connection) throws SQLException {
+        PreparedStatement statement = ConnectionPool.cachedStatement(connection, this);
+        statement.clearParameters();
+        statement.clearBatch();
+        return statement;
+    }
+
+    /*
+     * This function prepares the statement on a physical connection. Cached statements are
+     * executed many times, so they use a server-side prepared plan from the first execution.
+     */
+    PreparedStatement prepareOn(Connection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        if (statement.isWrapperFor(PGStatement.class)) {
+            statement.unwrap(PGStatement.class).setPrepareThreshold(1);
+        }
+        return statement;
+    }
+
+    /**
+     * This method binds a string parameter, binding SQL NULL for a null value.
+     */
+    public static void setStringOrNull(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    /**
+     * This method binds a timestamp parameter, binding SQL NULL for a null value.
+     */
+    public static void setTimestampOrNull(PreparedStatement statement, int index, Timestamp value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.TIMESTAMP);
+        } else {
+            statement.setTimestamp(index, value);
+        }
+    }
+
+    /**
+     * This method binds an integer parameter. The JSON marshaller leaves missing numeric fields
+     * at 0, so 0 is treated as "not given" and bound as SQL NULL.
+     */
+    public static void setIntOrNull(PreparedStatement statement, int index, int value) throws SQLException {
+        if (value == 0) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, value);
+        }
+    }
+
+    /**
+     * This method binds a non-negative amount. As with setIntOrNull, 0 is bound as SQL NULL;
+     * negative amounts are clamped to 0.
+     */
+    public static void setAmountOrNull(PreparedStatement statement, int index, float value) throws SQLException {
+        if (value == 0) {
+            statement.setNull(index, Types.NUMERIC);
+        } else {
+            statement.setFloat(index, Float.max(value, 0));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package edu.calvin.cs262.cs262d;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * This filter gives clients read-your-writes consistency when DataSourceRouter sends reads to replicas.
+ * Every request that may write (anything but GET) sets a cookie holding the time until which the client
+ * should read from the primary, stickyMillis from now; the GET requests of a client holding an unexpired
+ * cookie then read from the primary. The cookie is set before the request runs, so a failed write costs
+ * the client nothing but a few reads from the primary.
+ * <p>
+ * Clients that do not keep cookies only read their writes once the replicas have caught up.
+ * Without replicas the filter does nothing.
+ */
+public class ReadYourWritesFilter implements Filter {
+
+    static final String COOKIE = "eventconnect_primary_until";
+
+    private DataSourceRouter router;
+
+    @Override
+    public void init(FilterConfig config) {
+        router = DataSourceRouter.getInstance();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!router.hasReplicas()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        long now = System.currentTimeMillis();
+        if (!"GET".equals(httpRequest.getMethod())) {
+            Cookie cookie = new Cookie(COOKIE, Long.toString(now + router.getStickyMillis()));
+            cookie.setPath("/");
+            cookie.setMaxAge((int) Math.max(1, (router.getStickyMillis() + 999) / 1000));
+            cookie.setHttpOnly(true);
+            ((HttpServletResponse) response).addCookie(cookie);
+            chain.doFilter(request, response);
+            return;
+        }
+        // Times further ahead than a write sets are ignored, so clients cannot pin themselves to the primary.
+        long until = primaryUntil(httpRequest);
+        DataSourceRouter.readFromPrimary(until > now && until - now <= router.getStickyMillis());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            DataSourceRouter.readFromPrimary(false);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /*
+     * This function returns the time in the request's cookie until which it should read from the primary, or 0.
+     */
+    private static long primaryUntil(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
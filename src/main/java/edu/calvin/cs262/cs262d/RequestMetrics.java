@@ -0,0 +1,146 @@
+package edu.calvin.cs262.cs262d;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps this instance's request metrics for each API method: how many requests it served
+ * by status class, how many statements they ran, and latency histograms of the whole request and of
+ * its phases. MetricsFilter records them and MetricsServlet exports them in the Prometheus text format.
+ * The counts start from zero whenever the instance starts, as Prometheus counters may.
+ */
+public class RequestMetrics {
+
+    /**
+     * The phases of a request that are timed separately: the whole request, waiting for a pooled
+     * connection, running statements, mapping rows to objects and writing the JSON response.
+     */
+    public enum Phase {
+        TOTAL, ACQUIRE, QUERY, MAPPING, SERIALIZATION
+    }
+
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+    // Bucket limits of the exported histograms, in seconds.
+    private static final double[] EXPORTED_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+    private static final double[] EXPORTED_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static RequestMetrics instance;
+
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+
+    /**
+     * This method returns the metrics shared by this instance.
+     */
+    public static synchronized RequestMetrics getInstance() {
+        if (instance == null) {
+            instance = new RequestMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * This method records one request to the named API method: its response status, its total and
+     * serialization times, and the rest of its phases from its timer.
+     */
+    public void record(String endpoint, int status, long totalNanos, long serializationNanos, RequestTimer timer) {
+        EndpointMetrics metrics = endpoints.computeIfAbsent(endpoint, e -> new EndpointMetrics());
+        int statusClass = Math.max(1, Math.min(5, status / 100));
+        metrics.statuses.incrementAndGet(statusClass - 1);
+        metrics.queries.addAndGet(timer.getQueries());
+        metrics.phases[Phase.TOTAL.ordinal()].recordNanos(totalNanos);
+        metrics.phases[Phase.ACQUIRE.ordinal()].recordNanos(timer.getAcquireNanos());
+        metrics.phases[Phase.QUERY.ordinal()].recordNanos(timer.getQueryNanos());
+        metrics.phases[Phase.MAPPING.ordinal()].recordNanos(timer.getMappingNanos());
+        metrics.phases[Phase.SERIALIZATION.ordinal()].recordNanos(serializationNanos);
+    }
+
+    /**
+     * This method writes every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writePrometheus(PrintWriter out) {
+        Map<String, EndpointMetrics> sorted = new TreeMap<String, EndpointMetrics>(endpoints);
+
+        out.println("# HELP eventconnect_requests_total Requests served, by API method and status class.");
+        out.println("# TYPE eventconnect_requests_total counter");
+        for (Map.Entry<String, EndpointMetrics> entry : sorted.entrySet()) {
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                long count = entry.getValue().statuses.get(i);
+                if (count > 0) {
+                    out.println("eventconnect_requests_total{endpoint=\"" + entry.getKey() + "\",status=\""
+                            + STATUS_CLASSES[i] + "\"} " + count);
+                }
+            }
+        }
+
+        out.println("# HELP eventconnect_queries_total Statements run by requests, by API method.");
+        out.println("# TYPE eventconnect_queries_total counter");
+        for (Map.Entry<String, EndpointMetrics> entry : sorted.entrySet()) {
+            out.println("eventconnect_queries_total{endpoint=\"" + entry.getKey() + "\"} "
+                    + entry.getValue().queries.get());
+        }
+
+        out.println("# HELP eventconnect_request_seconds Time per request, by API method and phase.");
+        out.println("# TYPE eventconnect_request_seconds histogram");
+        for (Map.Entry<String, EndpointMetrics> entry : sorted.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                String labels = "endpoint=\"" + entry.getKey() + "\",phase=\"" + phase.name().toLowerCase() + "\"";
+                writeHistogram(out, "eventconnect_request_seconds", labels, entry.getValue().phases[phase.ordinal()]);
+            }
+        }
+
+        out.println("# HELP eventconnect_request_latency_seconds Quantiles of the total time per request, "
+                + "by API method, within 12.5%.");
+        out.println("# TYPE eventconnect_request_latency_seconds summary");
+        for (Map.Entry<String, EndpointMetrics> entry : sorted.entrySet()) {
+            LatencyHistogram histogram = entry.getValue().phases[Phase.TOTAL.ordinal()];
+            String labels = "endpoint=\"" + entry.getKey() + "\"";
+            long[] snapshot = histogram.snapshot();
+            for (double quantile : EXPORTED_QUANTILES) {
+                out.println("eventconnect_request_latency_seconds{" + labels + ",quantile=\"" + quantile + "\"} "
+                        + LatencyHistogram.quantile(snapshot, quantile) / 1e6);
+            }
+            out.println("eventconnect_request_latency_seconds_sum{" + labels + "} " + histogram.getSumMicros() / 1e6);
+            out.println("eventconnect_request_latency_seconds_count{" + labels + "} "
+                    + LatencyHistogram.countAtMost(snapshot, Long.MAX_VALUE));
+        }
+    }
+
+    /*
+     * This function writes the samples of one series of a Prometheus histogram of durations, in seconds,
+     * with the given labels (or none, if they are empty).
+     */
+    static void writeHistogram(PrintWriter out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        long[] snapshot = histogram.snapshot();
+        for (double limit : EXPORTED_BUCKETS) {
+            out.println(name + "_bucket{" + prefix + "le=\"" + limit + "\"} "
+                    + LatencyHistogram.countAtMost(snapshot, (long) (limit * 1e6)));
+        }
+        long count = LatencyHistogram.countAtMost(snapshot, Long.MAX_VALUE);
+        out.println(name + "_bucket{" + prefix + "le=\"+Inf\"} " + count);
+        out.println(name + "_sum" + suffix + " " + histogram.getSumMicros() / 1e6);
+        out.println(name + "_count" + suffix + " " + count);
+    }
+
+    /*
+     * The counters and histograms of one API method.
+     */
+    private static class EndpointMetrics {
+        private final AtomicLongArray statuses = new AtomicLongArray(STATUS_CLASSES.length);
+        private final AtomicLong queries = new AtomicLong();
+        private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+        EndpointMetrics() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+    }
+}
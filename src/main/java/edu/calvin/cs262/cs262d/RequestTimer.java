@@ -0,0 +1,70 @@
+package edu.calvin.cs262.cs262d;
+
+/**
+ * This class adds up where the time of one API request goes: waiting for a pooled connection,
+ * running statements and mapping rows to objects. MetricsFilter starts a timer for each request
+ * on the thread that serves it; the pool, the statements and Event record into it through
+ * current(), which is null on any other thread, such as those building the SearchIndex.
+ */
+public class RequestTimer {
+
+    private static final ThreadLocal<RequestTimer> CURRENT = new ThreadLocal<RequestTimer>();
+
+    // Only touched by the thread serving the request.
+    private long acquireNanos;
+    private long queryNanos;
+    private long mappingNanos;
+    private int queries;
+
+    /**
+     * This method starts timing the request served by the current thread.
+     */
+    public static RequestTimer start() {
+        RequestTimer timer = new RequestTimer();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /**
+     * This method returns the timer of the request served by the current thread, or null if there is none.
+     */
+    public static RequestTimer current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * This method stops timing the request served by the current thread.
+     */
+    public void stop() {
+        CURRENT.remove();
+    }
+
+    public void addAcquire(long nanos) {
+        acquireNanos += nanos;
+    }
+
+    public void addQuery(long nanos) {
+        queryNanos += nanos;
+        queries++;
+    }
+
+    public void addMapping(long nanos) {
+        mappingNanos += nanos;
+    }
+
+    public long getAcquireNanos() {
+        return acquireNanos;
+    }
+
+    public long getQueryNanos() {
+        return queryNanos;
+    }
+
+    public long getMappingNanos() {
+        return mappingNanos;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+}
@@ -0,0 +1,248 @@
+package edu.calvin.cs262.cs262d;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * This class brings a database's schema up to date by applying the Migrations it has not had yet,
+ * and checks that the hot queries are planned with the indexes those migrations create.
+ * <p>
+ * EventConnectListener migrates when the instance starts, unless the
+ * eventconnect.schema.migrateOnStartup system property is false. Migrations can also be
+ * applied as a separate step, before deploying:
+ * <pre>
+ * java -cp "target/EventConnect-1.0-SNAPSHOT/WEB-INF/classes:target/EventConnect-1.0-SNAPSHOT/WEB-INF/lib/*" \
+ *      edu.calvin.cs262.cs262d.SchemaMigrator JDBC-URL
+ * </pre>
+ * which exits with status 1 if a plan check fails.
+ */
+public class SchemaMigrator {
+
+    private static final Logger LOGGER = Logger.getLogger(SchemaMigrator.class.getName());
+
+    // Arbitrary key of the advisory lock held while migrating.
+    private static final long SCHEMA_LOCK = 262262018L;
+
+    // Each hot query, with sample parameters, and the plan nodes it must not use once the
+    // migrations have run. Sorts are ruled out where an index should already give the order.
+    private static final PlanCheck[] PLAN_CHECKS = {
+            new PlanCheck(Query.SELECT_EVENTS_WINDOW, new Object[]{new Timestamp(0), 1, new Timestamp(0), 50},
+                    "Seq Scan on events", "Sort"),
+            new PlanCheck(Query.SELECT_CATEGORY_WINDOW,
+                    new Object[]{"Category", new Timestamp(0), 1, new Timestamp(0), 50},
+                    "Seq Scan on events", "Sort"),
+            new PlanCheck(Query.SELECT_STATE_WINDOW,
+                    new Object[]{Event.CONFIRMED, new Timestamp(0), 1, new Timestamp(0), 50},
+                    "Seq Scan on events", "Sort"),
+            new PlanCheck(Query.SELECT_UNTIMED_EVENTS, new Object[]{1, 50},
+                    "Seq Scan on events"),
+            new PlanCheck(Query.SELECT_EVENT_CHANGES, new Object[]{0L, 1L, 1001},
+                    "Seq Scan on eventchanges"),
+            new PlanCheck(Query.SELECT_EVENT, new Object[]{1},
+                    "Seq Scan on events"),
+            new PlanCheck(Query.SELECT_USER_EVENTS, new Object[]{1},
+                    "Seq Scan on events", "Seq Scan on joinedevents"),
+            new PlanCheck(Query.SELECT_USER_CONFIRMED_EVENTS, new Object[]{1},
+                    "Seq Scan on events", "Seq Scan on joinedevents"),
+            new PlanCheck(Query.JOIN_EVENT, new Object[]{1, 1, 1, 1},
+                    "Seq Scan on events", "Seq Scan on joinedevents"),
+            new PlanCheck(Query.UNJOIN_EVENT, new Object[]{1, 1, 1, 1, 1},
+                    "Seq Scan on events", "Seq Scan on joinedevents", "Seq Scan on waitlist"),
+            new PlanCheck(Query.WAITLIST_USER, new Object[]{1, 1, 1, 1},
+                    "Seq Scan on events", "Seq Scan on joinedevents"),
+            new PlanCheck(Query.REMOVE_USER_PARTICIPATION, new Object[]{1},
+                    "Seq Scan on events", "Seq Scan on joinedevents"),
+            new PlanCheck(Query.SELECT_USER_ID, new Object[]{"TestUser"},
+                    "Seq Scan on users"),
+    };
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * This method applies the migrations the database has not had yet, in version order and in a
+     * single transaction, so a failed migration leaves the schema as it was. Instances starting
+     * at the same time take turns; the second finds nothing left to do.
+     *
+     * @param connection a connection to the EventConnect database
+     * @return the migrations that were applied
+     * @throws SQLException if a migration fails
+     * @throws IOException if a migration's SQL cannot be read
+     */
+    public static List<Migration> migrate(Connection connection) throws SQLException, IOException {
+        List<Migration> result = new ArrayList<Migration>();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement lock = Query.LOCK_SCHEMA.prepare(connection);
+            lock.setLong(1, SCHEMA_LOCK);
+            lock.executeQuery().close();
+            Query.CREATE_SCHEMA_VERSION.prepare(connection).executeUpdate();
+            Set<Integer> applied = selectVersions(connection);
+            for (Migration migration : Migration.values()) {
+                if (applied.contains(migration.getVersion())) {
+                    continue;
+                }
+                LOGGER.info("applying schema migration " + migration.getFile());
+                Statement statement = connection.createStatement();
+                try {
+                    statement.execute(migration.getSql());
+                } finally {
+                    statement.close();
+                }
+                PreparedStatement record = Query.INSERT_SCHEMA_VERSION.prepare(connection);
+                record.setInt(1, migration.getVersion());
+                record.setString(2, migration.getFile());
+                record.executeUpdate();
+                result.add(migration);
+            }
+            connection.commit();
+        } finally {
+            if (!connection.getAutoCommit()) {
+                // Nothing to undo after a commit; after a failure this drops the partial migration.
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method asks Postgres how it would run each hot query and reports the queries whose plan
+     * uses a node it should not, such as a sequential scan of a table the migrations indexed.
+     * Sequential scans are disabled while planning, so that small tables, which Postgres would
+     * rather scan, still show whether a suitable index exists.
+     *
+     * @param connection a connection to a migrated EventConnect database
+     * @return a description of each failed check, with its plan; empty if every check passed
+     * @throws SQLException
+     */
+    public static List<String> verifyPlans(Connection connection) throws SQLException {
+        List<String> result = new ArrayList<String>();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            Statement settings = connection.createStatement();
+            try {
+                settings.execute("SET LOCAL enable_seqscan = off");
+            } finally {
+                settings.close();
+            }
+            for (PlanCheck check : PLAN_CHECKS) {
+                List<String> plan = explain(check, connection);
+                for (String line : plan) {
+                    String node = planNode(line);
+                    for (String forbidden : check.forbidden) {
+                        if (node != null && (node.equals(forbidden) || node.startsWith(forbidden + " "))) {
+                            result.add(check.query + " uses " + forbidden + ":\n  " + String.join("\n  ", plan));
+                        }
+                    }
+                }
+            }
+        } finally {
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        }
+        return result;
+    }
+
+    /**
+     * This method migrates the database at the JDBC URL given as the argument (or in the cloudsql
+     * system property) and checks the query plans, exiting with status 1 if a check fails.
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        String url = (args.length > 0) ? args[0] : System.getProperty("cloudsql");
+        Connection connection = DriverManager.getConnection(url);
+        List<String> problems;
+        try {
+            for (Migration migration : migrate(connection)) {
+                System.out.println("applied " + migration.getFile());
+            }
+            problems = verifyPlans(connection);
+        } finally {
+            connection.close();
+        }
+        for (String problem : problems) {
+            System.err.println(problem);
+        }
+        System.exit(problems.isEmpty() ? 0 : 1);
+    }
+
+    /*
+     * This function returns the versions already applied to the database.
+     */
+    private static Set<Integer> selectVersions(Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        Set<Integer> result = new HashSet<Integer>();
+        try {
+            resultSet = Query.SELECT_SCHEMA_VERSIONS.prepare(connection).executeQuery();
+            while (resultSet.next()) {
+                result.add(resultSet.getInt(1));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function returns the lines of the EXPLAIN output for the given check's query.
+     */
+    private static List<String> explain(PlanCheck check, Connection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("EXPLAIN " + check.query.getSql());
+        ResultSet resultSet = null;
+        List<String> result = new ArrayList<String>();
+        try {
+            for (int i = 0; i < check.parameters.length; i++) {
+                statement.setObject(i + 1, check.parameters[i]);
+            }
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(resultSet.getString(1));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            statement.close();
+        }
+        return result;
+    }
+
+    /*
+     * This function returns the node name of an EXPLAIN line, such as "Seq Scan on events",
+     * or null if the line only adds detail (such as "Sort Key: ...") to the node above it.
+     */
+    private static String planNode(String line) {
+        String node = line.trim();
+        if (node.startsWith("->")) {
+            node = node.substring(2).trim();
+        }
+        int cost = node.indexOf("  (cost=");
+        return (cost < 0) ? null : node.substring(0, cost);
+    }
+
+    /*
+     * A query to explain, the parameters to plan it with, and the plan nodes it must not use.
+     */
+    private static class PlanCheck {
+        private final Query query;
+        private final Object[] parameters;
+        private final String[] forbidden;
+
+        PlanCheck(Query query, Object[] parameters, String... forbidden) {
+            this.query = query;
+            this.parameters = parameters;
+            this.forbidden = forbidden;
+        }
+    }
+}
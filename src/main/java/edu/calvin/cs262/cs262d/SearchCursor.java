@@ -0,0 +1,78 @@
+package edu.calvin.cs262.cs262d;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * This class represents a position in the ranking of a SearchIndex search: best score first,
+ * then by ID. Searches hand it to clients as an opaque page token and resume after it, so a page
+ * follows on from the last event the client saw even if events were added or removed in between.
+ * <p>
+ * Scores depend on how many events contain each word, so an event whose score changes between
+ * pages may be skipped or repeated, as an event moved in the (Time, ID) order would be.
+ */
+class SearchCursor {
+
+    private static final String VERSION = "1";
+
+    // The ranking of a search: higher scores first, then lower IDs.
+    static final Comparator<SearchCursor> RANKING = Comparator
+            .comparingDouble(SearchCursor::getScore).reversed()
+            .thenComparingInt(SearchCursor::getId);
+
+    private final double score;
+    private final int id;
+
+    SearchCursor(double score, int id) {
+        this.score = score;
+        this.id = id;
+    }
+
+    double getScore() {
+        return score;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /*
+     * This function encodes the cursor as a URL-safe page token. The score is kept to the bit,
+     * so that the event it came from compares equal to it when the search resumes.
+     */
+    String encode() {
+        String value = VERSION + ":" + id + ":" + Long.toHexString(Double.doubleToLongBits(score));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * This function decodes a page token produced by encode().
+     * It throws IllegalArgumentException if the token is malformed.
+     */
+    static SearchCursor decode(String token) {
+        String value;
+        try {
+            value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed page token", e);
+        }
+        String[] parts = value.split(":", -1);
+        if (parts.length != 3 || !parts[0].equals(VERSION)) {
+            throw new IllegalArgumentException("malformed page token");
+        }
+        double score;
+        int id;
+        try {
+            id = Integer.parseInt(parts[1]);
+            score = Double.longBitsToDouble(Long.parseUnsignedLong(parts[2], 16));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("malformed page token", e);
+        }
+        // Scores are sums of positive weights.
+        if (!(score > 0) || Double.isInfinite(score)) {
+            throw new IllegalArgumentException("malformed page token");
+        }
+        return new SearchCursor(score, id);
+    }
+}
@@ -0,0 +1,388 @@
+package edu.calvin.cs262.cs262d;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * This class keeps an inverted index of the words in every event's title, location and description,
+ * so that keyword searches are answered from memory. A search matches the events that contain every
+ * word of the query, ranked by how often they contain them (a word in the title counts three times,
+ * in the location twice) and by how rare the words are among all events.
+ * <p>
+ * The index is built from the database, in parallel slices of the Events table, when the instance
+ * starts or is first searched, and rebuilt once it is older than rebuildMillis, which bounds how long
+ * it misses a change made through another App Engine instance. EventResource updates it after each
+ * of its writes, including writes made while a rebuild is reading the table.
+ */
+public class SearchIndex {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int TITLE_WEIGHT = 3;
+    private static final int LOCATION_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    // Rows are fetched from the database FETCH_SIZE at a time while building.
+    private static final int FETCH_SIZE = 500;
+
+    private static SearchIndex instance;
+
+    private final int buildThreads;
+    private final long rebuildMillis;
+
+    // Replaced as a whole by each build, and updated in place by writes.
+    private volatile Index index;
+    // Held while building, so that only one request builds at a time.
+    private final ReentrantLock building = new ReentrantLock();
+    // Guarded by this: the writes made since the current build started (null for a deleted event).
+    private Map<Integer, Event> pending;
+
+    /**
+     * This method returns the index shared by this instance. The number of slices it is built in and
+     * its rebuild interval come from the eventconnect.search.buildThreads and
+     * eventconnect.search.rebuildMillis system properties.
+     */
+    public static synchronized SearchIndex getInstance() {
+        if (instance == null) {
+            instance = new SearchIndex(
+                    Integer.getInteger("eventconnect.search.buildThreads", 4),
+                    Long.getLong("eventconnect.search.rebuildMillis", 600000)
+            );
+        }
+        return instance;
+    }
+
+    public SearchIndex(int buildThreads, long rebuildMillis) {
+        this.buildThreads = Math.max(1, buildThreads);
+        this.rebuildMillis = rebuildMillis;
+    }
+
+    /**
+     * This method splits text into the lower-case words that are indexed and searched for.
+     */
+    public static List<String> words(String text) {
+        List<String> result = new ArrayList<String>();
+        if (text != null) {
+            for (String word : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+                if (!word.isEmpty()) {
+                    result.add(word);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method returns up to limit events matching the query, best match first, as their positions
+     * in the ranking: those after the given position, or from the start if it is null. It returns an
+     * empty list before the index is built.
+     */
+    List<SearchCursor> search(String query, SearchCursor after, int limit) {
+        Index current = index;
+        List<SearchCursor> result = new ArrayList<SearchCursor>();
+        Set<String> words = new LinkedHashSet<String>(words(query));
+        if (current == null || words.isEmpty()) {
+            return result;
+        }
+        List<Map<Integer, Integer>> postings = new ArrayList<Map<Integer, Integer>>();
+        for (String word : words) {
+            Map<Integer, Integer> posting = current.postings.get(word);
+            if (posting == null) {
+                return result;
+            }
+            postings.add(posting);
+        }
+        // Only events in the shortest posting list can match every word.
+        postings.sort(Comparator.comparingInt(Map::size));
+        int eventCount = current.documents.size();
+        List<SearchCursor> hits = new ArrayList<SearchCursor>();
+        for (int id : postings.get(0).keySet()) {
+            double score = 0;
+            for (Map<Integer, Integer> posting : postings) {
+                Integer weight = posting.get(id);
+                if (weight == null) {
+                    score = -1;
+                    break;
+                }
+                score += weight * Math.log(1 + (double) eventCount / posting.size());
+            }
+            if (score >= 0) {
+                SearchCursor hit = new SearchCursor(score, id);
+                if (after == null || SearchCursor.RANKING.compare(hit, after) > 0) {
+                    hits.add(hit);
+                }
+            }
+        }
+        hits.sort(SearchCursor.RANKING);
+        return new ArrayList<SearchCursor>(hits.subList(0, Math.min(limit, hits.size())));
+    }
+
+    /**
+     * This method builds the index from the database if it has not been built yet, waiting for a
+     * build already under way, or rebuilds it if it is older than rebuildMillis and no other request
+     * is rebuilding it. The Events table is read in buildThreads slices, each on its own pooled connection.
+     *
+     * @throws SQLException
+     */
+    public void refresh(ConnectionPool pool) throws SQLException {
+        if (isFresh(index)) {
+            return;
+        }
+        if (index == null) {
+            building.lock();
+        } else if (!building.tryLock()) {
+            return;
+        }
+        try {
+            if (!isFresh(index)) {
+                build(pool);
+            }
+        } finally {
+            building.unlock();
+        }
+    }
+
+    /**
+     * This method indexes an event that was just created or modified, as read back after the write.
+     */
+    public synchronized void eventChanged(Event event) {
+        if (index != null) {
+            index.update(event);
+        }
+        if (pending != null) {
+            pending.put(event.getId(), event);
+        }
+    }
+
+    /**
+     * This method forgets the event with the given ID, which has been deleted.
+     */
+    public synchronized void eventRemoved(int id) {
+        if (index != null) {
+            index.remove(id);
+        }
+        if (pending != null) {
+            pending.put(id, null);
+        }
+    }
+
+    private boolean isFresh(Index current) {
+        return current != null && System.currentTimeMillis() - current.builtAt <= rebuildMillis;
+    }
+
+    /*
+     * This function reads the Events table into a new index, one ID range per thread, then applies
+     * the writes made meanwhile, which the slices may or may not have seen, and installs it.
+     */
+    private void build(final ConnectionPool pool) throws SQLException {
+        synchronized (this) {
+            pending = new HashMap<Integer, Event>();
+        }
+        final Index built = new Index(System.currentTimeMillis());
+        boolean installed = false;
+        ExecutorService executor = null;
+        try {
+            int[] range = selectIdRange(pool);
+            if (range != null) {
+                long span = (long) range[1] - range[0] + 1;
+                long sliceSize = (span + buildThreads - 1) / buildThreads;
+                executor = Executors.newFixedThreadPool(buildThreads);
+                List<Future<Void>> slices = new ArrayList<Future<Void>>();
+                for (long first = range[0]; first <= range[1]; first += sliceSize) {
+                    final int low = (int) first;
+                    final int high = (int) Math.min(range[1], first + sliceSize - 1);
+                    slices.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws SQLException {
+                            loadSlice(built, low, high, pool);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> slice : slices) {
+                    awaitSlice(slice);
+                }
+            }
+            synchronized (this) {
+                for (Map.Entry<Integer, Event> write : pending.entrySet()) {
+                    if (write.getValue() == null) {
+                        built.remove(write.getKey());
+                    } else {
+                        built.update(write.getValue());
+                    }
+                }
+                index = built;
+                pending = null;
+                installed = true;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (!installed) {
+                synchronized (this) {
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    /*
+     * This function returns the lowest and highest event IDs, or null if there are no events.
+     */
+    private int[] selectIdRange(ConnectionPool pool) throws SQLException {
+        Connection connection = null;
+        ResultSet resultSet = null;
+        try {
+            connection = pool.getConnection();
+            resultSet = Query.SELECT_EVENT_ID_RANGE.prepare(connection).executeQuery();
+            if (resultSet.next() && resultSet.getObject(1) != null) {
+                return new int[]{resultSet.getInt(1), resultSet.getInt(2)};
+            }
+            return null;
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+    }
+
+    /*
+     * This function indexes the events with IDs from low to high, inclusive.
+     * Postgres only honors the fetch size inside a transaction, so autocommit is turned off;
+     * the pool restores it when the connection is returned.
+     */
+    private void loadSlice(Index built, int low, int high, ConnectionPool pool) throws SQLException {
+        Connection connection = null;
+        ResultSet resultSet = null;
+        try {
+            connection = pool.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = Query.SELECT_EVENT_TEXT.prepare(connection);
+            statement.setInt(1, low);
+            statement.setInt(2, high);
+            statement.setFetchSize(FETCH_SIZE);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                built.put(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+            if (connection != null) { connection.close(); }
+        }
+    }
+
+    /*
+     * This function waits for a slice to be loaded, rethrowing the SQLException it failed with.
+     */
+    private static void awaitSlice(Future<Void> slice) throws SQLException {
+        try {
+            slice.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException("failed to build the search index", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while building the search index");
+        }
+    }
+
+    /*
+     * The weighted number of times each word occurs in each event, by word, and the words of each
+     * event, by ID, so that an event's postings can be removed when it changes. Slices are loaded
+     * concurrently; once installed, the index is changed only while holding the SearchIndex instance.
+     */
+    private static class Index {
+        private final long builtAt;
+        private final Map<String, Map<Integer, Integer>> postings = new ConcurrentHashMap<String, Map<Integer, Integer>>();
+        private final Map<Integer, Document> documents = new ConcurrentHashMap<Integer, Document>();
+
+        Index(long builtAt) {
+            this.builtAt = builtAt;
+        }
+
+        void put(int id, String title, String description, String location) {
+            Map<String, Integer> weights = new HashMap<String, Integer>();
+            for (String word : words(title)) {
+                weights.merge(word, TITLE_WEIGHT, Integer::sum);
+            }
+            for (String word : words(location)) {
+                weights.merge(word, LOCATION_WEIGHT, Integer::sum);
+            }
+            for (String word : words(description)) {
+                weights.merge(word, DESCRIPTION_WEIGHT, Integer::sum);
+            }
+            documents.put(id, new Document(title, description, location, weights.keySet()));
+            for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+                postings.computeIfAbsent(weight.getKey(), w -> new ConcurrentHashMap<Integer, Integer>())
+                        .put(id, weight.getValue());
+            }
+        }
+
+        void update(Event event) {
+            Document document = documents.get(event.getId());
+            if (document != null && document.hasText(event)) {
+                // Joins and other changes that leave the text alone need no reindexing.
+                return;
+            }
+            remove(event.getId());
+            put(event.getId(), event.getTitle(), event.getDescription(), event.getLocation());
+        }
+
+        void remove(int id) {
+            Document document = documents.remove(id);
+            if (document == null) {
+                return;
+            }
+            for (String word : document.words) {
+                Map<Integer, Integer> posting = postings.get(word);
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    postings.remove(word);
+                }
+            }
+        }
+    }
+
+    /*
+     * The words of one indexed event, and the text they came from, which an update compares in full
+     * so that a change to the text is never mistaken for none.
+     */
+    private static class Document {
+        private final String title;
+        private final String description;
+        private final String location;
+        private final String[] words;
+
+        Document(String title, String description, String location, Set<String> words) {
+            this.title = title;
+            this.description = description;
+            this.location = location;
+            this.words = words.toArray(new String[0]);
+        }
+
+        boolean hasText(Event event) {
+            return Objects.equals(title, event.getTitle())
+                    && Objects.equals(description, event.getDescription())
+                    && Objects.equals(location, event.getLocation());
+        }
+    }
+}
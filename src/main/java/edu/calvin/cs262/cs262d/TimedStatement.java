@@ -0,0 +1,40 @@
+package edu.calvin.cs262.cs262d;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+
+/**
+ * This class wraps a prepared statement so that the time its execute methods take counts as query
+ * time for the current request's RequestTimer. ConnectionPool wraps each statement it caches, once.
+ */
+class TimedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+
+    private TimedStatement(PreparedStatement statement) {
+        this.statement = statement;
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new TimedStatement(statement));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        RequestTimer timer = method.getName().startsWith("execute") ? RequestTimer.current() : null;
+        long start = (timer == null) ? 0 : System.nanoTime();
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            if (timer != null) {
+                timer.addQuery(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package edu.calvin.cs262.cs262d;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * This class keeps this instance's events of the near future in (Time, ID) order, so that
+ * time-window listings of upcoming events are answered from memory. It covers the events from
+ * the time it was loaded up to horizonMillis later, or fewer if more than maxSize events fall in
+ * that window, and is reloaded from the database every refreshMillis. That interval also bounds
+ * how long it misses an event that was changed through another App Engine instance.
+ * <p>
+ * EventResource updates it after each of its writes, including the joins that change its events'
+ * counts. Writes made while a load is reading the database are applied to the loaded events before
+ * they are installed, as SearchIndex does, so a steady stream of joins cannot keep every load from
+ * being installed. Events are shared between requests and must be treated as read-only.
+ */
+public class UpcomingEvents {
+
+    private static UpcomingEvents instance;
+
+    private final int maxSize;
+    private final long horizonMillis;
+    private final long refreshMillis;
+
+    // Replaced as a whole by each load; its events map is updated in place by writes.
+    private volatile Snapshot snapshot;
+    // Guarded by this: whether a load is under way, and the writes made since it started (null for a deleted event).
+    private boolean loading = false;
+    private Map<Integer, Event> pending;
+
+    /**
+     * This method returns the index shared by this instance. Its size, horizon and refresh interval come
+     * from the eventconnect.upcoming.size, eventconnect.upcoming.horizonMillis and
+     * eventconnect.upcoming.refreshMillis system properties.
+     */
+    public static synchronized UpcomingEvents getInstance() {
+        if (instance == null) {
+            instance = new UpcomingEvents(
+                    Integer.getInteger("eventconnect.upcoming.size", 5000),
+                    Long.getLong("eventconnect.upcoming.horizonMillis", 14L * 24 * 3600 * 1000),
+                    Long.getLong("eventconnect.upcoming.refreshMillis", 10000)
+            );
+        }
+        return instance;
+    }
+
+    public UpcomingEvents(int maxSize, long horizonMillis, long refreshMillis) {
+        this.maxSize = maxSize;
+        this.horizonMillis = horizonMillis;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * This method returns up to limit events from the given position (inclusive) to the given time
+     * (exclusive, or unbounded if null), in (Time, ID) order. It returns null if the index does not
+     * cover that part of the window, in which case the caller should query the database.
+     */
+    public List<Event> window(EventCursor from, Timestamp to, int limit) {
+        Snapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.loadedAt > refreshMillis
+                || EventCursor.POSITION.compare(from, current.from) < 0) {
+            return null;
+        }
+        EventCursor end = current.until;
+        boolean complete = false;
+        if (to != null && EventCursor.POSITION.compare(new EventCursor(to, Integer.MIN_VALUE), end) <= 0) {
+            end = new EventCursor(to, Integer.MIN_VALUE);
+            complete = true;
+        }
+        List<Event> result = new ArrayList<Event>();
+        if (EventCursor.POSITION.compare(from, end) >= 0) {
+            return result;
+        }
+        for (Event event : current.events.subMap(from, true, end, false).values()) {
+            result.add(event);
+            if (result.size() == limit) {
+                return result;
+            }
+        }
+        // Fewer than limit events before the end of the index: only an answer if the window ends there too.
+        return complete ? result : null;
+    }
+
+    /**
+     * This method returns whether the caller should load the index from the database: false if the
+     * index is fresh, disabled (maxSize 0) or another request is already loading it. A caller told
+     * to load must finish with putLoaded or loadFailed.
+     */
+    public synchronized boolean startLoad() {
+        Snapshot current = snapshot;
+        if (maxSize == 0 || loading || (current != null && System.currentTimeMillis() - current.loadedAt <= refreshMillis)) {
+            return false;
+        }
+        loading = true;
+        pending = new HashMap<Integer, Event>();
+        return true;
+    }
+
+    /**
+     * This method returns the end (exclusive) of the window to load from the given time.
+     * Load at most getLoadLimit() events of the window, in order, and pass them to putLoaded.
+     */
+    public Timestamp horizon(Timestamp from) {
+        return new Timestamp(from.getTime() + horizonMillis);
+    }
+
+    public int getLoadLimit() {
+        // One more than fits, to learn whether the window had to be cut short.
+        return maxSize + 1;
+    }
+
+    /**
+     * This method installs the events loaded for the window from the given time to its horizon,
+     * with the writes made since the load started applied to them.
+     */
+    public synchronized void putLoaded(List<Event> events, Timestamp from) {
+        Map<Integer, Event> writes = pending;
+        loading = false;
+        pending = null;
+        EventCursor until = new EventCursor(horizon(from), Integer.MIN_VALUE);
+        if (events.size() > maxSize) {
+            // Cover only the events that fit, up to and including the last one kept.
+            Event last = events.get(maxSize - 1);
+            until = new EventCursor(last.getTime(), last.getId() + 1);
+            events = events.subList(0, maxSize);
+        }
+        Snapshot loaded = new Snapshot(new EventCursor(from, Integer.MIN_VALUE), until, System.currentTimeMillis());
+        for (Event event : events) {
+            loaded.put(event);
+        }
+        for (Map.Entry<Integer, Event> write : writes.entrySet()) {
+            if (write.getValue() == null) {
+                loaded.remove(write.getKey());
+            } else {
+                loaded.update(write.getValue());
+            }
+        }
+        snapshot = loaded;
+    }
+
+    /**
+     * This method ends a load that failed, so that a later request can try again.
+     */
+    public synchronized void loadFailed() {
+        loading = false;
+        pending = null;
+    }
+
+    /**
+     * This method records an event that was just created or modified, as read back after the write.
+     */
+    public synchronized void eventChanged(Event event) {
+        if (pending != null) {
+            pending.put(event.getId(), event);
+        }
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.update(event);
+        }
+    }
+
+    /**
+     * This method forgets the event with the given ID, which has been deleted.
+     */
+    public synchronized void eventRemoved(int id) {
+        if (pending != null) {
+            pending.put(id, null);
+        }
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.remove(id);
+        }
+    }
+
+    /*
+     * The events of one load, keyed by position, and the window [from, until) they cover.
+     * The positions map lets an event be found by ID when it moves or is deleted.
+     */
+    private static class Snapshot {
+        private final EventCursor from;
+        private final EventCursor until;
+        private final long loadedAt;
+        private final ConcurrentSkipListMap<EventCursor, Event> events =
+                new ConcurrentSkipListMap<EventCursor, Event>(EventCursor.POSITION);
+        // Guarded by the UpcomingEvents instance.
+        private final Map<Integer, EventCursor> positions = new HashMap<Integer, EventCursor>();
+
+        Snapshot(EventCursor from, EventCursor until, long loadedAt) {
+            this.from = from;
+            this.until = until;
+            this.loadedAt = loadedAt;
+        }
+
+        void put(Event event) {
+            EventCursor position = new EventCursor(event.getTime(), event.getId());
+            positions.put(event.getId(), position);
+            events.put(position, event);
+        }
+
+        void remove(int id) {
+            EventCursor position = positions.remove(id);
+            if (position != null) {
+                events.remove(position);
+            }
+        }
+
+        /*
+         * This function moves an event that was written to its new position, or out of the window.
+         */
+        void update(Event event) {
+            remove(event.getId());
+            EventCursor position = new EventCursor(event.getTime(), event.getId());
+            if (event.getTime() != null
+                    && EventCursor.POSITION.compare(position, from) >= 0
+                    && EventCursor.POSITION.compare(position, until) < 0) {
+                put(event);
+            }
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package edu.calvin.cs262.cs262d;
 
 import com.google.api.server.spi.config.*;
+import com.google.api.server.spi.response.BadRequestException;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.api.server.spi.config.ApiMethod.HttpMethod.*;
 
@@ -39,6 +43,29 @@ import static com.google.api.server.spi.config.ApiMethod.HttpMethod.*;
 
 public class UserResource {
 
+    private static final int MAX_ID_ATTEMPTS = 3;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    private final ConnectionPool pool;
+    private final DataSourceRouter reads;
+    private final IdAllocator userIds;
+    private final IdentityResolver identities;
+    private final EventWrites eventWrites;
+
+    public UserResource() {
+        this(ConnectionPool.getInstance(), DataSourceRouter.getInstance(), IdAllocator.forUsers(),
+                IdentityResolver.getInstance(), EventWrites.getInstance());
+    }
+
+    public UserResource(ConnectionPool pool, DataSourceRouter reads, IdAllocator userIds,
+                        IdentityResolver identities, EventWrites eventWrites) {
+        this.pool = pool;
+        this.reads = reads;
+        this.userIds = userIds;
+        this.identities = identities;
+        this.eventWrites = eventWrites;
+    }
+
     /**
      * GET
      * This method gets the full list of users from the Users table.
@@ -49,13 +76,11 @@ public class UserResource {
     @ApiMethod(path = "users", httpMethod = GET)
     public List<User> getUsers() throws SQLException {
         Connection connection = null;
-        Statement statement = null;
         ResultSet resultSet = null;
         List<User> result = new ArrayList<User>();
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = selectUsers(statement);
+            connection = reads.getReadConnection();
+            resultSet = selectUsers(connection);
             while (resultSet.next()) {
                 User u = new User(
                         resultSet.getInt(1),        // id
@@ -70,9 +95,6 @@ public class UserResource {
             if (resultSet != null) {
                 resultSet.close();
             }
-            if (statement != null) {
-                statement.close();
-            }
             if (connection != null) {
                 connection.close();
             }
@@ -91,29 +113,13 @@ public class UserResource {
     @ApiMethod(path = "user/{id}", httpMethod = GET)
     public User getUser(@Named("id") int id) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
         User result = null;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = selectUser(id, statement);
-            if (resultSet.next()) {
-                result = new User(
-                        resultSet.getInt(1),        // id
-                        resultSet.getString(2),     // username
-                        "[hidden]"      // password
-                );
-            }
+            connection = reads.getReadConnection();
+            result = getUser(id, connection);
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (resultSet != null) {
-                resultSet.close();
-            }
-            if (statement != null) {
-                statement.close();
-            }
             if (connection != null) {
                 connection.close();
             }
@@ -124,39 +130,27 @@ public class UserResource {
     /**
      * GET
      * This method gets the user from the Users table with the given ID.
+     * With view=summary the events are returned, and read, without their descriptions.
      *
      * @param token username:password base64 encoded
+     * @param view full or summary (optional, defaults to full)
      * @return if the player exists, a JSON-formatted user record, otherwise an invalid/empty JSON entity
      * @throws SQLException
+     * @throws BadRequestException if the view is malformed
      */
     @ApiMethod(path = "user/events/{token}", httpMethod = GET)
-    public List<Event> getUserEvents(@Named("token") String token) throws SQLException {
+    public List<Event> getUserEvents(@Named("token") String token, @Nullable @Named("view") String view)
+            throws SQLException, BadRequestException {
+        boolean summary = EventResource.isSummaryView(view);
         Connection connection = null;
-        Statement statement = null;
         ResultSet resultSet = null;
-        // get the userID from the token
-        String username = decodeBase64(token).split(":")[0];
-        int userID = getUserId(username);
         List<Event> result = new ArrayList<Event>();
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = selectUserEvents(userID, statement);
+            connection = reads.getReadConnection();
+            int userID = identities.resolveOnReplica(token, connection);
+            resultSet = selectUserEvents(userID, summary, connection);
             while (resultSet.next()) {
-                Event e = new Event(
-                        resultSet.getInt(1),        // id
-                        resultSet.getInt(2),        // userID
-                        resultSet.getString(3),     // title
-                        resultSet.getString(4),     // description
-                        resultSet.getTimestamp(5),  // time
-                        resultSet.getString(6),     // location
-                        resultSet.getFloat(7),      // cost
-                        resultSet.getInt(8),        // threshold
-                        resultSet.getInt(9),        // capacity
-                        resultSet.getString(10),    // category
-                        resultSet.getInt(11)        // count
-                );
-                result.add(e);
+                result.add(Event.fromResultSet(resultSet));
             }
         } catch (SQLException e) {
             throw (e);
@@ -164,8 +158,51 @@ public class UserResource {
             if (resultSet != null) {
                 resultSet.close();
             }
-            if (statement != null) {
-                statement.close();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * GET
+     * This method gets the events the user in the token has joined that will take place: those
+     * whose count has reached their threshold, including full ones. An event without a threshold
+     * takes place once anyone has joined it, so it is always among its participants' confirmed
+     * events. The states are kept in the Events table as joins and unjoins commit, so this reads
+     * the user's events through the JoinedEventsByUser index and filters them by state, without
+     * counting any participants.
+     * With view=summary the events are returned, and read, without their descriptions.
+     *
+     * @param token username:password base64 encoded
+     * @param view full or summary (optional, defaults to full)
+     * @return JSON-formatted list of event records, ordered by time
+     * @throws SQLException
+     * @throws BadRequestException if the view is malformed
+     */
+    @ApiMethod(path = "user/events/{token}/confirmed", httpMethod = GET)
+    public List<Event> getUserConfirmedEvents(@Named("token") String token, @Nullable @Named("view") String view)
+            throws SQLException, BadRequestException {
+        boolean summary = EventResource.isSummaryView(view);
+        Connection connection = null;
+        ResultSet resultSet = null;
+        List<Event> result = new ArrayList<Event>();
+        try {
+            connection = reads.getReadConnection();
+            int userID = identities.resolveOnReplica(token, connection);
+            PreparedStatement statement = (summary
+                    ? Query.SELECT_USER_CONFIRMED_EVENTS_SUMMARY : Query.SELECT_USER_CONFIRMED_EVENTS).prepare(connection);
+            statement.setInt(1, userID);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(Event.fromResultSet(resultSet));
+            }
+        } catch (SQLException e) {
+            throw (e);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
             }
             if (connection != null) {
                 connection.close();
@@ -181,9 +218,9 @@ public class UserResource {
      * the same POST several times creates multiple objects with unique IDs but
      * otherwise having the same field values.
      *
-     * The method creates a new, unique ID by querying the Users table for the
-     * largest ID and adding 1 to that. Using a DB sequence would be a better solution.
-     * This method creates an instance of user with a new, unique ID.
+     * The new ID comes from the instance's IdAllocator, which reserves blocks of IDs
+     * from the UserIDs sequence, so no query is needed to choose it. The insert returns
+     * the new row, so the user is not read back.
      *
      * @param user a JSON representation of the user to be created
      * @return new user entity with a system-generated ID
@@ -192,28 +229,16 @@ public class UserResource {
     @ApiMethod(path="user", httpMethod=POST)
     public User postUser(User user) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        int userID;
+        User result = null;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery("SELECT MAX(ID) FROM Users");
-            if (resultSet.next()) {
-                userID = resultSet.getInt(1) + 1;
-                user.setId(userID);
-            } else {
-                throw new RuntimeException("failed to find unique ID...");
-            }
-            insertUser(user, statement);
+            connection = pool.getConnection();
+            result = insertNewUser(user, connection);
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (resultSet != null) { resultSet.close(); }
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
-        return getUser(userID);
+        return result;
     }
 
     /**
@@ -224,6 +249,7 @@ public class UserResource {
      * We do this because PUT is idempotent, meaning that running the same PUT several
      * times is the same as running it exactly once.
      * Any user ID value set in the passed user data is ignored.
+     * The update or insert is a single statement that returns the stored row.
      *
      * @param userID the ID for the user, assumed to be unique
      * @param user a JSON representation of the user; The id parameter overrides any id specified here.
@@ -233,32 +259,28 @@ public class UserResource {
     @ApiMethod(path = "user/{id}/{token}", httpMethod = PUT)
     public User putUser(User user, @Named("id") int userID, @Named("token") String token) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
-        ResultSet resultSet = null;
+        User result = null;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
+            connection = pool.getConnection();
             user.setId(userID);
-            resultSet = selectUser(userID, statement);
-            if (resultSet.next() && isAuthorized(token)) {
-                updateUser(user, statement);
+            if (isAuthorized(token)) {
+                result = upsertUser(user, connection);
             } else {
-                insertUser(user, statement);
+                result = insertUser(user, connection);
+                if (result == null) {
+                    result = getUser(userID, connection);
+                }
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (resultSet != null) {
-                resultSet.close();
-            }
-            if (statement != null) {
-                statement.close();
-            }
             if (connection != null) {
                 connection.close();
             }
         }
-        return getUser(userID);
+        // The user's username may have changed.
+        identities.userChanged(userID);
+        return result;
     }
 
     /**
@@ -274,115 +296,186 @@ public class UserResource {
     @ApiMethod(path = "user/{id}/{token}", httpMethod = DELETE)
     public void deleteUser(User user, @Named("id") int userID, @Named("token") String token) throws SQLException {
         Connection connection = null;
-        Statement statement = null;
+        Map<Integer, Event> leftEvents = new HashMap<Integer, Event>();
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
+            connection = pool.getConnection();
             if(isAuthorized(token)) {
-                deleteUser(userID, statement);
+                // Deleting the user cascades to their JoinedEvents and Waitlist rows, so the participant
+                // counts of those events drop, and their seats go to waiting users, in the same transaction.
+                connection.setAutoCommit(false);
+                for (Event event : removeParticipation(userID, connection)) {
+                    leftEvents.put(event.getId(), event);
+                }
+                deleteUser(userID, connection);
+                for (int eventID : new ArrayList<Integer>(leftEvents.keySet())) {
+                    Event promoted = promoteWaitlist(eventID, connection);
+                    if (promoted != null) {
+                        leftEvents.put(eventID, promoted);
+                    }
+                }
+                connection.commit();
             }
         } catch (SQLException e) {
             throw (e);
         } finally {
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
+        identities.userChanged(userID);
+        for (Event event : leftEvents.values()) {
+            eventWrites.eventWritten(event.getId(), event);
+        }
     }
     /**
      * SQL Utility Functions
+     * The statements themselves are declared in Query; the ones returned by
+     * Query.prepare are cached on the connection, so only ResultSets are closed here.
      *********************************************/
 
     /*
-     * This function gets all users in the Users table
+     * This function gets the user with the given ID using the given connection,
+     * so that callers can reuse the connection they already hold.
      */
-    private ResultSet selectUsers(Statement statement) throws SQLException {
-        return statement.executeQuery(
-                "SELECT ID, Username FROM Users;"
-        );
+    private User getUser(int id, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.SELECT_USER.prepare(connection);
+        statement.setInt(1, id);
+        return readUser(statement);
     }
 
     /*
-     * This function gets the user with the given ID from the Users table
+     * This function runs the given statement, which returns at most one (ID, Username) row,
+     * and returns the user, with the password hidden.
      */
-    private ResultSet selectUser(int id, Statement statement) throws SQLException {
-        return statement.executeQuery(
-                String.format(
-                        "SELECT ID, Username FROM Users WHERE ID=%s", id
-                )
-        );
+    private User readUser(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = null;
+        User result = null;
+        try {
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                result = new User(
+                        resultSet.getInt(1),        // id
+                        resultSet.getString(2),     // username
+                        "[hidden]"      // password
+                );
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
     }
 
     /*
-     * This function inserts the given user using the given JDBC statement.
+     * This function gets all users in the Users table
      */
-    private void insertUser(User user, Statement statement) throws SQLException {
-        statement.executeUpdate(
-                String.format("INSERT INTO Users " +
-                                "VALUES (%d, %s, %s);",
-                        user.getId(),
-                        getValueStringOrNull(user.getUsername()),
-                        getValueStringOrNull(user.getPassword())
-                )
-        );
+    private ResultSet selectUsers(Connection connection) throws SQLException {
+        return Query.SELECT_USERS.prepare(connection).executeQuery();
     }
 
     /*
-     * This function modifies the given user using the given JDBC statement.
+     * This function inserts the given user under a newly allocated ID and returns it as stored.
+     * A PUT may already have created a user with an ID from a block that had not been
+     * handed out yet; that ID is skipped and the insert retried with the next one.
      */
-    private void updateUser(User user, Statement statement) throws SQLException {
-        statement.executeUpdate(
-                String.format("UPDATE Users " +
-                                "SET Username=COALESCE(%s, Users.Username), " +
-                                "Password=COALESCE(%s, Users.Password), " +
-                                "WHERE id=%d;",
-                        getValueStringOrNull(user.getUsername()),
-                        getValueStringOrNull(user.getPassword()),
-                        user.getId()
-                )
-        );
+    private User insertNewUser(User user, Connection connection) throws SQLException {
+        for (int attempt = 0; attempt < MAX_ID_ATTEMPTS; attempt++) {
+            user.setId(userIds.nextId(connection));
+            User result = insertUser(user, connection);
+            if (result != null) {
+                return result;
+            }
+        }
+        throw new RuntimeException("failed to find unique ID...");
     }
 
     /*
-     * This function deletes the User with the given id using the given JDBC statement.
+     * This function inserts the given user using the given connection and returns it as stored.
+     * It returns null, inserting nothing, if a user with the same ID already exists.
      */
-    private void deleteUser(int id, Statement statement) throws SQLException {
-        statement.executeUpdate(
-                String.format("DELETE FROM Users WHERE ID=%d", id)
-        );
+    private User insertUser(User user, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.INSERT_USER.prepare(connection);
+        statement.setInt(1, user.getId());
+        Query.setStringOrNull(statement, 2, user.getUsername());
+        Query.setStringOrNull(statement, 3, user.getPassword());
+        return readUser(statement);
     }
 
     /*
-     * This function will check if a user is authorized to change a user
-     * given the username:password encoded in base64
+     * This function updates the given user, or inserts it if it does not exist, using the given
+     * connection, and returns it as stored. Fields left unset in the given user keep their current
+     * values. As in EventResource.upsertEvent, the statement is run again if another request
+     * inserted the user after it looked.
      */
-    private boolean isAuthorized(String base64UsernamePassword) {
-        //TODO: check if user is authorized
-        // https://blog.restcase.com/restful-api-authentication-basics/
-        // Basic Authentication section
-        // Anyone is allowed to access anything
-        return true;
+    private User upsertUser(User user, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.UPSERT_USER.prepare(connection);
+        Query.setStringOrNull(statement, 1, user.getUsername());
+        Query.setStringOrNull(statement, 2, user.getPassword());
+        statement.setInt(3, user.getId());
+        statement.setInt(4, user.getId());
+        Query.setStringOrNull(statement, 5, user.getUsername());
+        Query.setStringOrNull(statement, 6, user.getPassword());
+        for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+            User result = readUser(statement);
+            if (result != null) {
+                return result;
+            }
+        }
+        throw new RuntimeException("user " + user.getId() + " kept changing...");
     }
 
     /*
-     * This function returns a value literal suitable for an SQL INSERT/UPDATE command.
-     * If the value is NULL, it returns an unquoted NULL, otherwise it returns the value with or without quotes
-     * depending on the value of "quoted".
+     * This function decrements the participant count of every event the given user has joined,
+     * and returns those events with their new counts.
      */
-    private String getValueStringOrNull(String value) {
-        if (value == null) {
-            return "NULL";
-        } else {
-            return "'" + value + "'";
+    private List<Event> removeParticipation(int userID, Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        List<Event> result = new ArrayList<Event>();
+        try {
+            PreparedStatement statement = Query.REMOVE_USER_PARTICIPATION.prepare(connection);
+            statement.setInt(1, userID);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(Event.fromResultSet(resultSet));
+            }
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
+        }
+        return result;
+    }
+
+    /*
+     * This function enrolls the users waiting for an event in the seats it has free, and returns
+     * the event with its new count, or null if nobody was enrolled.
+     */
+    private Event promoteWaitlist(int eventID, Connection connection) throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            PreparedStatement statement = Query.PROMOTE_WAITLIST.prepare(connection);
+            statement.setInt(1, eventID);
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? Event.fromResultSet(resultSet) : null;
+        } finally {
+            if (resultSet != null) { resultSet.close(); }
         }
     }
 
     /*
-     * This function will decode a base64 encoded string
+     * This function deletes the User with the given id using the given connection.
      */
-    private String decodeBase64(String encodedString) {
-        byte[] decodedBytes = Base64.getDecoder().decode(encodedString);
-        String decodedString = new String(decodedBytes);
-        return decodedString;
+    private void deleteUser(int id, Connection connection) throws SQLException {
+        PreparedStatement statement = Query.DELETE_USER.prepare(connection);
+        statement.setInt(1, id);
+        statement.executeUpdate();
+    }
+
+    /*
+     * This function will check if a user is authorized to change a user
+     * given the username:password encoded in base64
+     */
+    private boolean isAuthorized(String base64UsernamePassword) {
+        //TODO: check if user is authorized
+        // https://blog.restcase.com/restful-api-authentication-basics/
+        // Basic Authentication section
+        // Anyone is allowed to access anything
+        return true;
     }
 
     /*
@@ -393,50 +486,35 @@ public class UserResource {
         return encodedString;
     }
 
+
     /*
-     * This function returns the userID from the Users table given a username
+     * This function writes the events the user in the given token has joined, as getUserEvents
+     * returns them, row by row as they are read rather than as a list.
      */
-    private int getUserId(String username) throws SQLException {
+    void writeUserEvents(String token, boolean summary, EventJsonWriter out) throws SQLException, IOException {
         Connection connection = null;
-        Statement statement = null;
         ResultSet resultSet = null;
-        int userID;
         try {
-            connection = DriverManager.getConnection(System.getProperty("cloudsql"));
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery(
-                    String.format("SELECT ID FROM Users WHERE Username='%s'", username)
-            );
-            if (resultSet.next()) {
-                userID = resultSet.getInt(1);
-            } else {
-                throw new RuntimeException("failed to find user with the given username");
+            connection = reads.getReadConnection();
+            int userID = identities.resolveOnReplica(token, connection);
+            resultSet = selectUserEvents(userID, summary, connection);
+            while (resultSet.next()) {
+                out.writeRow(resultSet);
             }
-        } catch (SQLException e) {
-            throw (e);
         } finally {
             if (resultSet != null) { resultSet.close(); }
-            if (statement != null) { statement.close(); }
             if (connection != null) { connection.close(); }
         }
-        return userID;
     }
 
     /*
-     * This function gets all events in the Events table
+     * This function gets all events the given user has joined, without their descriptions if summary is set
      */
-    private ResultSet selectUserEvents(int UserID, Statement statement) throws SQLException {
-        return statement.executeQuery(
-                String.format("SELECT Events.*, " +
-                        "COUNT (JoinedEvents.EventID) " +
-                        "FROM Events " +
-                        "LEFT JOIN JoinedEvents " +
-                        "ON JoinedEvents.EventID=Events.ID " +
-                        "WHERE JoinedEvents.UserID=%s" +
-                        "GROUP BY Events.ID " +
-                        "ORDER BY Events.Time;"
-                        , UserID)
-        );
+    private ResultSet selectUserEvents(int userID, boolean summary, Connection connection) throws SQLException {
+        Query query = summary ? Query.SELECT_USER_EVENTS_SUMMARY : Query.SELECT_USER_EVENTS;
+        PreparedStatement statement = query.prepare(connection);
+        statement.setInt(1, userID);
+        return statement.executeQuery();
     }
 
 }
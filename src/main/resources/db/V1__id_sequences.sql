@@ -0,0 +1,5 @@
+-- New IDs are reserved in blocks of 50 (IdAllocator.BLOCK_SIZE) from these sequences.
+CREATE SEQUENCE IF NOT EXISTS EventIDs INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS UserIDs INCREMENT BY 50;
+SELECT setval('EventIDs', (SELECT COALESCE(MAX(ID), 0) + 1 FROM Events), false);
+SELECT setval('UserIDs', (SELECT COALESCE(MAX(ID), 0) + 1 FROM Users), false);
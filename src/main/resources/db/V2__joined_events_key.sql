@@ -0,0 +1,13 @@
+-- A user joins an event at most once; JOIN_EVENT relies on this key.
+-- Rows written before the key existed may be duplicated or incomplete, so they are cleaned up first.
+DELETE FROM JoinedEvents WHERE EventID IS NULL OR UserID IS NULL;
+DELETE FROM JoinedEvents a
+    USING JoinedEvents b
+    WHERE a.EventID = b.EventID AND a.UserID = b.UserID AND a.ctid > b.ctid;
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conrelid = 'joinedevents'::regclass AND contype = 'p') THEN
+        ALTER TABLE JoinedEvents ADD PRIMARY KEY (EventID, UserID);
+    END IF;
+END
+$$;
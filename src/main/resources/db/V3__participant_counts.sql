@@ -0,0 +1,3 @@
+-- Participant counts are maintained on the event instead of counted on every read.
+ALTER TABLE Events ADD COLUMN IF NOT EXISTS Participants integer NOT NULL DEFAULT 0;
+UPDATE Events SET Participants = (SELECT COUNT(*) FROM JoinedEvents WHERE EventID = Events.ID);
@@ -0,0 +1,6 @@
+-- Events in (Time, ID) order, for the time-ordered listings and their page cursors.
+CREATE INDEX IF NOT EXISTS EventsByTime ON Events (Time, ID);
+-- The events a user has joined; the primary key only serves lookups by event.
+CREATE INDEX IF NOT EXISTS JoinedEventsByUser ON JoinedEvents (UserID, EventID);
+-- The events a user created, for the foreign key check when a user is deleted.
+CREATE INDEX IF NOT EXISTS EventsByUser ON Events (UserID);
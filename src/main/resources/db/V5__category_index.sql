@@ -0,0 +1,2 @@
+-- The events of a category in (Time, ID) order, for category listings that miss the CategoryIndex.
+CREATE INDEX IF NOT EXISTS EventsByCategory ON Events (Category, Time, ID);
@@ -0,0 +1,37 @@
+-- Every committed change to an event, for GET events/changes. TxID orders changes by the
+-- transaction that made them, so readers can tell when no earlier change can still commit.
+CREATE TABLE IF NOT EXISTS EventChanges (
+    Seq bigserial PRIMARY KEY,
+    TxID bigint NOT NULL DEFAULT txid_current(),
+    EventID integer NOT NULL,
+    -- I(nsert), U(pdate), C(ount change only) or D(elete).
+    Kind char(1) NOT NULL,
+    ChangedAt timestamp NOT NULL DEFAULT now()
+);
+CREATE INDEX IF NOT EXISTS EventChangesByTx ON EventChanges (TxID);
+CREATE INDEX IF NOT EXISTS EventChangesByEvent ON EventChanges (EventID, Seq);
+
+-- Changes before this transaction ID may have been compacted away.
+CREATE TABLE IF NOT EXISTS EventChangeHorizon (
+    ID integer PRIMARY KEY CHECK (ID = 1),
+    TxID bigint NOT NULL
+);
+INSERT INTO EventChangeHorizon VALUES (1, txid_current()) ON CONFLICT (ID) DO NOTHING;
+
+CREATE OR REPLACE FUNCTION LogEventChange() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO EventChanges (EventID, Kind) VALUES (NEW.ID, 'I');
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO EventChanges (EventID, Kind) VALUES (OLD.ID, 'D');
+    ELSIF NEW IS DISTINCT FROM OLD THEN
+        INSERT INTO EventChanges (EventID, Kind) VALUES (NEW.ID,
+            CASE WHEN to_jsonb(NEW) - 'participants' = to_jsonb(OLD) - 'participants' THEN 'C' ELSE 'U' END);
+    END IF;
+    RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS EventsChanged ON Events;
+CREATE TRIGGER EventsChanged AFTER INSERT OR UPDATE OR DELETE ON Events
+    FOR EACH ROW EXECUTE PROCEDURE LogEventChange();
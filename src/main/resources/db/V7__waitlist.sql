@@ -0,0 +1,8 @@
+-- Users waiting for a seat at a full event. UNJOIN_EVENT enrolls them in Seq order as seats free up.
+CREATE TABLE IF NOT EXISTS Waitlist (
+    EventID integer REFERENCES Events(ID) ON DELETE CASCADE,
+    UserID integer REFERENCES Users(ID) ON DELETE CASCADE,
+    Seq bigserial NOT NULL,
+    PRIMARY KEY (EventID, UserID)
+);
+CREATE INDEX IF NOT EXISTS WaitlistByEvent ON Waitlist (EventID, Seq);
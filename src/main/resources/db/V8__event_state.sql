@@ -0,0 +1,47 @@
+-- Each event's state, kept by a trigger as joins and unjoins change its count, so events can be
+-- listed by state through an index: pending until the count reaches the threshold, then confirmed,
+-- and full at capacity. Event.stateOf must agree with EventState.
+ALTER TABLE Events ADD COLUMN IF NOT EXISTS State Varchar(10) NOT NULL DEFAULT 'pending';
+
+CREATE OR REPLACE FUNCTION EventState(participants integer, threshold integer, capacity integer)
+    RETURNS Varchar AS $$
+    SELECT CASE
+        WHEN COALESCE(capacity, 0) > 0 AND participants >= capacity THEN 'full'
+        WHEN participants >= COALESCE(threshold, 0) THEN 'confirmed'
+        ELSE 'pending'
+    END
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION SetEventState() RETURNS trigger AS $$
+BEGIN
+    NEW.State := EventState(NEW.Participants, NEW.Threshold, NEW.Capacity);
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+-- Filling in the states is not a change to the events, so it is kept out of the change log.
+ALTER TABLE Events DISABLE TRIGGER EventsChanged;
+UPDATE Events SET State = EventState(Participants, Threshold, Capacity);
+ALTER TABLE Events ENABLE TRIGGER EventsChanged;
+
+DROP TRIGGER IF EXISTS EventStateSet ON Events;
+CREATE TRIGGER EventStateSet BEFORE INSERT OR UPDATE OF Participants, Threshold, Capacity ON Events
+    FOR EACH ROW EXECUTE PROCEDURE SetEventState();
+
+CREATE INDEX IF NOT EXISTS EventsByState ON Events (State, Time, ID);
+
+-- The state follows from the count, so a change to both is still only a count change.
+CREATE OR REPLACE FUNCTION LogEventChange() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO EventChanges (EventID, Kind) VALUES (NEW.ID, 'I');
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO EventChanges (EventID, Kind) VALUES (OLD.ID, 'D');
+    ELSIF NEW IS DISTINCT FROM OLD THEN
+        INSERT INTO EventChanges (EventID, Kind) VALUES (NEW.ID,
+            CASE WHEN to_jsonb(NEW) - 'participants' - 'state' = to_jsonb(OLD) - 'participants' - 'state'
+                THEN 'C' ELSE 'U' END);
+    END IF;
+    RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
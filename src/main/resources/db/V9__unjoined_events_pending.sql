@@ -0,0 +1,16 @@
+-- An event without a threshold needs one participant to be confirmed, so an event nobody has joined
+-- is never listed as taking place. Event.stateOf must agree with EventState.
+CREATE OR REPLACE FUNCTION EventState(participants integer, threshold integer, capacity integer)
+    RETURNS Varchar AS $$
+    SELECT CASE
+        WHEN COALESCE(capacity, 0) > 0 AND participants >= capacity THEN 'full'
+        WHEN participants >= GREATEST(COALESCE(threshold, 0), 1) THEN 'confirmed'
+        ELSE 'pending'
+    END
+$$ LANGUAGE sql IMMUTABLE;
+
+-- As in V8, recomputing the states is not a change to the events, so it is kept out of the change log.
+ALTER TABLE Events DISABLE TRIGGER EventsChanged;
+UPDATE Events SET State = EventState(Participants, Threshold, Capacity)
+    WHERE State <> EventState(Participants, Threshold, Capacity);
+ALTER TABLE Events ENABLE TRIGGER EventsChanged;
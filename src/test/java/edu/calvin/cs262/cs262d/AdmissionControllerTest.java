@@ -0,0 +1,59 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+
+    private static Event event(int id, int capacity, int count) {
+        return new Event(id, 1, "Event " + id, null, null, null, 0f, 0, capacity, null, count);
+    }
+
+    @Test
+    public void unknownEventsAreAdmitted() {
+        AdmissionController admission = new AdmissionController(60000);
+        assertTrue(admission.tryAdmit(1));
+    }
+
+    @Test
+    public void fullEventsAreRefused() {
+        AdmissionController admission = new AdmissionController(60000);
+        admission.eventChanged(event(1, 2, 1));
+        assertTrue(admission.tryAdmit(1));
+        assertFalse(admission.tryAdmit(1));
+
+        admission.eventFull(2);
+        assertFalse(admission.tryAdmit(2));
+    }
+
+    @Test
+    public void releasedSeatsAreAdmittedAgain() {
+        AdmissionController admission = new AdmissionController(60000);
+        admission.eventChanged(event(1, 1, 0));
+        assertTrue(admission.tryAdmit(1));
+        assertFalse(admission.tryAdmit(1));
+
+        admission.release(1);
+        assertTrue("a failed join gives its seat back", admission.tryAdmit(1));
+    }
+
+    @Test
+    public void writesResetTheCounter() {
+        AdmissionController admission = new AdmissionController(60000);
+        admission.eventChanged(event(1, 1, 0));
+        assertTrue(admission.tryAdmit(1));
+        // A join that changed nothing returns the event as it was, giving its seat back.
+        admission.eventChanged(event(1, 1, 0));
+        assertTrue(admission.tryAdmit(1));
+    }
+
+    @Test
+    public void countersAreNotTrustedWithoutATtl() {
+        AdmissionController admission = new AdmissionController(0);
+        admission.eventChanged(event(1, 1, 1));
+        admission.eventFull(1);
+        assertTrue(admission.tryAdmit(1));
+    }
+}
@@ -0,0 +1,57 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CategoryIndexTest {
+
+    private static final Timestamp TIME = Timestamp.valueOf("2030-01-01 12:00:00");
+
+    private static Event event(int id, String category) {
+        return new Event(id, 1, "Event " + id, null, TIME, null, 0f, 0, 0, category, 0);
+    }
+
+    @Test
+    public void writesDuringALoadAreApplied() throws Exception {
+        final CategoryIndex index = new CategoryIndex(60000);
+        FakeConnection connection = new FakeConnection((sql, parameters) -> {
+            // Writes that commit while the index is read.
+            index.eventChanged(event(1, "music"));
+            index.eventChanged(event(2, "sports"));
+            index.eventRemoved(3);
+            return new FakeConnection.Rows("ID", "Time", "Category")
+                    .add(1, TIME, "music")
+                    .add(2, TIME, "music")
+                    .add(3, TIME, "music");
+        });
+
+        index.refresh(connection.getConnection());
+
+        assertNotNull("the load is installed", index.counts());
+        EventCursor start = new EventCursor(TIME, Integer.MIN_VALUE);
+        assertEquals(Arrays.asList(1), index.page("music", start, null, 10));
+        assertEquals(Arrays.asList(2), index.page("sports", start, null, 10));
+    }
+
+    @Test
+    public void aFailedLoadIsNotInstalled() throws Exception {
+        CategoryIndex index = new CategoryIndex(60000);
+        FakeConnection connection = new FakeConnection((sql, parameters) -> {
+            throw new SQLException("connection reset");
+        });
+        try {
+            index.refresh(connection.getConnection());
+            fail("the load should have failed");
+        } catch (SQLException e) {
+            assertNull(index.counts());
+        }
+    }
+}
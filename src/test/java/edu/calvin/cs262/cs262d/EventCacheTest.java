@@ -0,0 +1,60 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EventCacheTest {
+
+    private static Event event(int id, String time) {
+        return new Event(id, 1, "Event " + id, null, (time == null) ? null : Timestamp.valueOf(time),
+                null, 0f, 0, 0, null, 0);
+    }
+
+    private static List<Integer> ids(List<Event> events) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (Event event : events) {
+            result.add(event.getId());
+        }
+        return result;
+    }
+
+    @Test
+    public void writesKeepTheListInTimeOrder() {
+        EventCache cache = new EventCache(10, 60000);
+        cache.putAllLoaded(Arrays.asList(event(1, "2030-01-01 10:00:00"), event(2, "2030-01-02 10:00:00"),
+                event(3, null)), cache.startLoad());
+
+        cache.eventChanged(event(2, "2029-12-31 10:00:00"));
+        cache.eventChanged(event(4, "2030-01-01 10:00:00"));
+        cache.eventRemoved(3);
+
+        assertEquals(Arrays.asList(2, 1, 4), ids(cache.getAll()));
+    }
+
+    @Test
+    public void theListIsOnlyRebuiltAfterAWrite() {
+        EventCache cache = new EventCache(10, 60000);
+        cache.putAllLoaded(Arrays.asList(event(1, "2030-01-01 10:00:00")), cache.startLoad());
+        List<Event> first = cache.getAll();
+        assertSame(first, cache.getAll());
+
+        cache.eventChanged(event(1, "2030-01-01 11:00:00"));
+        assertEquals(Timestamp.valueOf("2030-01-01 11:00:00"), cache.getAll().get(0).getTime());
+    }
+
+    @Test
+    public void invalidatingDropsTheList() {
+        EventCache cache = new EventCache(10, 60000);
+        cache.putAllLoaded(Arrays.asList(event(1, "2030-01-01 10:00:00")), cache.startLoad());
+        cache.invalidate(1);
+        assertNull(cache.getAll());
+    }
+}
@@ -0,0 +1,117 @@
+package edu.calvin.cs262.cs262d;
+
+import com.google.api.server.spi.response.ConflictException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventResourceTest {
+
+    private static final String TOKEN =
+            Base64.getEncoder().encodeToString("alice:secret".getBytes(StandardCharsets.UTF_8));
+
+    private static Event event(int id, int capacity, int count) {
+        return new Event(id, 1, "Event " + id, null, null, null, 0f, 0, capacity, null, count);
+    }
+
+    /*
+     * This function returns an EventResource without group commit whose queries are answered by the
+     * given connection, and whose admission is decided by the given controller.
+     */
+    private static EventResource resource(FakeConnection connection, AdmissionController admission) {
+        ConnectionPool pool = FakeConnection.poolOf(connection);
+        IdentityResolver identities = new IdentityResolver(10, 60000);
+        return new EventResource(pool, new DataSourceRouter(pool, Collections.<ConnectionPool>emptyList(), 0),
+                new IdAllocator(Query.NEXT_EVENT_ID_BLOCK, 1), new EventCache(10, 60000), identities,
+                new UpcomingEvents(0, 0, 60000), new CategoryIndex(60000), new SearchIndex(1, 60000),
+                new EventVersions(10000), new EventWatcher(0, 0, 0, 1), new JoinCommitter(pool, identities, 1, 0),
+                admission);
+    }
+
+    /*
+     * This function answers the user lookup, and a join with the given participants and fullness.
+     */
+    private static FakeConnection joins(final int count, final boolean full, final boolean joined) {
+        return new FakeConnection((sql, parameters) -> {
+            if (sql.equals(Query.SELECT_USER_ID.getSql())) {
+                return new FakeConnection.Rows("ID").add(1);
+            }
+            if (sql.equals(Query.SELECT_JOINED.getSql())) {
+                FakeConnection.Rows rows = new FakeConnection.Rows("?column?");
+                return joined ? rows.add(1) : rows;
+            }
+            if (sql.equals(Query.JOIN_EVENT.getSql())) {
+                return new FakeConnection.Rows(FakeConnection.eventColumns())
+                        .add(FakeConnection.eventRow((Integer) parameters.get(1), count, full));
+            }
+            throw new SQLException("unexpected query: " + sql);
+        });
+    }
+
+    @Test
+    public void aFailedJoinGivesItsSeatBack() throws Exception {
+        AdmissionController admission = new AdmissionController(60000);
+        admission.eventChanged(event(1, 1, 0));
+        FakeConnection connection = new FakeConnection((sql, parameters) -> {
+            if (sql.equals(Query.SELECT_USER_ID.getSql())) {
+                return new FakeConnection.Rows("ID").add(1);
+            }
+            throw new SQLException("canceling statement due to statement timeout");
+        });
+        try {
+            resource(connection, admission).joinEvent(1, TOKEN);
+            fail("the join should have failed");
+        } catch (SQLException e) {
+            assertTrue("the seat is free again", admission.tryAdmit(1));
+        }
+    }
+
+    @Test
+    public void aJoinRefusedByTheDatabaseMarksTheEventFull() throws Exception {
+        AdmissionController admission = new AdmissionController(60000);
+        try {
+            resource(joins(1, true, false), admission).joinEvent(1, TOKEN);
+            fail("the join should have been refused");
+        } catch (ConflictException e) {
+            assertFalse(admission.tryAdmit(1));
+        }
+    }
+
+    @Test
+    public void aFullEventIsRefusedWithoutAJoin() throws Exception {
+        AdmissionController admission = new AdmissionController(60000);
+        admission.eventFull(1);
+        FakeConnection connection = new FakeConnection((sql, parameters) -> {
+            if (sql.equals(Query.SELECT_USER_ID.getSql())) {
+                return new FakeConnection.Rows("ID").add(1);
+            }
+            if (sql.equals(Query.SELECT_JOINED.getSql())) {
+                return new FakeConnection.Rows("?column?");
+            }
+            throw new AssertionError("unexpected query: " + sql);
+        });
+        try {
+            resource(connection, admission).joinEvent(1, TOKEN);
+            fail("the join should have been refused");
+        } catch (ConflictException e) {
+            assertFalse(admission.tryAdmit(1));
+        }
+    }
+
+    @Test
+    public void aParticipantCanRejoinAFullEvent() throws Exception {
+        AdmissionController admission = new AdmissionController(60000);
+        admission.eventFull(1);
+        Event result = resource(joins(1, false, true), admission).joinEvent(1, TOKEN);
+        assertEquals(1, result.getId());
+        assertEquals(1, result.getCount());
+    }
+}
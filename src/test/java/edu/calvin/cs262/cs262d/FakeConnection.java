@@ -0,0 +1,242 @@
+package edu.calvin.cs262.cs262d;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a JDBC connection for tests, without a database: each query is answered by a
+ * Handler given its SQL and parameters. Only the methods the resources use are meaningful; any
+ * other returns null, zero or false.
+ */
+class FakeConnection {
+
+    /**
+     * The answer to the queries run on a FakeConnection.
+     */
+    interface Handler {
+        Rows execute(String sql, Map<Integer, Object> parameters) throws SQLException;
+    }
+
+    /**
+     * The result of a query: its column labels and rows.
+     */
+    static class Rows {
+        private final List<String> columns;
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+
+        Rows(String... columns) {
+            this.columns = Arrays.asList(columns);
+        }
+
+        Rows add(Object... row) {
+            rows.add(row);
+            return this;
+        }
+    }
+
+    private final Handler handler;
+    private final Connection proxy;
+
+    // Guarded by this.
+    private int commits = 0;
+    private int rollbacks = 0;
+    private boolean autoCommit = true;
+
+    FakeConnection(Handler handler) {
+        this.handler = handler;
+        this.proxy = proxy(Connection.class, this::onConnection);
+    }
+
+    Connection getConnection() {
+        return proxy;
+    }
+
+    synchronized int getCommits() {
+        return commits;
+    }
+
+    synchronized int getRollbacks() {
+        return rollbacks;
+    }
+
+    /**
+     * This method returns a row of JOIN_EVENT's or UNJOIN_EVENT's result for the given event.
+     */
+    static Object[] eventRow(int id, int count, boolean full) {
+        return new Object[]{id, 1, "Event " + id, null, null, null, 0f, 0, 0, null, count, full};
+    }
+
+    /**
+     * This method returns the labels of the columns of eventRow.
+     */
+    static String[] eventColumns() {
+        return new String[]{"ID", "UserID", "Title", "Description", "Time", "Location", "Cost",
+                "Threshold", "Capacity", "Category", "Participants", "Full"};
+    }
+
+    /**
+     * This method returns a connection pool whose every connection is the given one.
+     */
+    static ConnectionPool poolOf(final FakeConnection connection) {
+        return new ConnectionPool("jdbc:fake", 1, 0, 0, 0) {
+            @Override
+            public Connection getConnection() {
+                return connection.getConnection();
+            }
+
+            @Override
+            public Connection tryGetConnection() {
+                return connection.getConnection();
+            }
+        };
+    }
+
+    private Object onConnection(Method method, Object[] args) throws SQLException {
+        synchronized (this) {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return new Statement((String) args[0]).proxy;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "commit":
+                    commits++;
+                    return null;
+                case "rollback":
+                    rollbacks++;
+                    return null;
+                case "isValid":
+                    return true;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    /*
+     * A statement prepared on the connection, which keeps its parameters until it is executed.
+     */
+    private class Statement {
+        private final String sql;
+        private final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+        private final PreparedStatement proxy;
+
+        Statement(String sql) {
+            this.sql = sql;
+            this.proxy = FakeConnection.proxy(PreparedStatement.class, this::onStatement);
+        }
+
+        private Object onStatement(Method method, Object[] args) throws SQLException {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            switch (name) {
+                case "clearParameters":
+                    parameters.clear();
+                    return null;
+                case "executeQuery":
+                    Rows rows = handler.execute(sql, Collections.unmodifiableMap(parameters));
+                    return new Cursor((rows == null) ? new Rows() : rows).proxy;
+                case "executeUpdate":
+                    handler.execute(sql, Collections.unmodifiableMap(parameters));
+                    return 0;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    /*
+     * A result set over the rows a Handler returned.
+     */
+    private static class Cursor {
+        private final Rows rows;
+        private final ResultSet proxy;
+        private int row = -1;
+        private boolean wasNull = false;
+
+        Cursor(Rows rows) {
+            this.rows = rows;
+            this.proxy = FakeConnection.proxy(ResultSet.class, this::onResultSet);
+        }
+
+        private Object onResultSet(Method method, Object[] args) throws SQLException {
+            String name = method.getName();
+            if (name.equals("next")) {
+                return ++row < rows.rows.size();
+            }
+            if (name.equals("wasNull")) {
+                return wasNull;
+            }
+            if (name.startsWith("get") && args != null && args.length == 1) {
+                int column = (args[0] instanceof Integer)
+                        ? (Integer) args[0] : rows.columns.indexOf(args[0]) + 1;
+                if (column < 1 || row < 0 || row >= rows.rows.size()) {
+                    throw new SQLException("no such column or row: " + args[0]);
+                }
+                Object value = rows.rows.get(row)[column - 1];
+                wasNull = (value == null);
+                return (value == null) ? defaultValue(method.getReturnType()) : value;
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /*
+     * A handler of one proxied interface's calls.
+     */
+    private interface Calls {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, final Calls calls) {
+        InvocationHandler handler = (target, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return target == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(target);
+                    default:
+                        return type.getSimpleName() + "@fake";
+                }
+            }
+            return calls.invoke(method, args);
+        };
+        return type.cast(Proxy.newProxyInstance(FakeConnection.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JoinCommitterTest {
+
+    private static String token(String username) {
+        return Base64.getEncoder().encodeToString((username + ":secret").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * This function joins each token to its own event, all at once, and returns their futures.
+     */
+    private static List<Future<Event>> joinAll(final JoinCommitter committer, ExecutorService executor,
+                                               String... usernames) {
+        List<Future<Event>> results = new ArrayList<Future<Event>>();
+        for (int i = 0; i < usernames.length; i++) {
+            final int eventID = 100 + i;
+            final String token = token(usernames[i]);
+            results.add(executor.submit(() -> committer.join(eventID, token)));
+        }
+        return results;
+    }
+
+    @Test
+    public void oneFailedLookupDoesNotFailTheBatch() throws Exception {
+        FakeConnection connection = new FakeConnection((sql, parameters) -> {
+            if (sql.equals(Query.SELECT_USER_ID.getSql())) {
+                String username = (String) parameters.get(1);
+                if (username.equals("bob")) {
+                    throw new SQLException("canceling statement due to statement timeout");
+                }
+                return new FakeConnection.Rows("ID").add(username.equals("alice") ? 1 : 3);
+            }
+            if (sql.equals(Query.JOIN_EVENT.getSql())) {
+                int eventID = (Integer) parameters.get(1);
+                return new FakeConnection.Rows(FakeConnection.eventColumns())
+                        .add(FakeConnection.eventRow(eventID, 1, false));
+            }
+            throw new SQLException("unexpected query: " + sql);
+        });
+        // The batch closes once all three joins are in it, long before it would stop lingering.
+        JoinCommitter committer = new JoinCommitter(FakeConnection.poolOf(connection),
+                new IdentityResolver(10, 60000), 3, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Event>> results = joinAll(committer, executor, "alice", "bob", "carol");
+
+            assertEquals(100, results.get(0).get(10, TimeUnit.SECONDS).getId());
+            assertEquals(102, results.get(2).get(10, TimeUnit.SECONDS).getId());
+            try {
+                results.get(1).get(10, TimeUnit.SECONDS);
+                fail("bob's join should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+            }
+            assertEquals("the other joins are committed together", 1, connection.getCommits());
+            assertEquals(0, connection.getRollbacks());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsHoldTheirValues() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 1023, 1024, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value + " is below its bucket's upper bound",
+                    value < LatencyHistogram.upperBound(bucket) || LatencyHistogram.upperBound(bucket) == Long.MAX_VALUE);
+            if (bucket > 0) {
+                assertTrue(value + " is not in the bucket before", value >= LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinAnEighthOfTheirValues() {
+        for (long value = 8; value < 1000000; value = value * 3 / 2 + 1) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucketOf(value));
+            assertTrue(value + " rounds up to " + upper, upper - 1 - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void quantilesAndCounts() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.recordNanos(5000);
+        }
+        histogram.recordNanos(2000000);
+        long[] snapshot = histogram.snapshot();
+
+        assertEquals(5, LatencyHistogram.quantile(snapshot, 0.5));
+        assertEquals(5, LatencyHistogram.quantile(snapshot, 0.99));
+        long slowest = LatencyHistogram.quantile(snapshot, 1.0);
+        assertTrue(slowest >= 2000 && slowest <= 2000 + 2000 / 8);
+        assertEquals(99, LatencyHistogram.countAtMost(snapshot, 1000));
+        assertEquals(100, LatencyHistogram.countAtMost(snapshot, 10000));
+        assertEquals(99 * 5 + 2000, histogram.getSumMicros());
+    }
+
+    @Test
+    public void anEmptyHistogramHasNoQuantiles() {
+        assertEquals(0, LatencyHistogram.quantile(new LatencyHistogram().snapshot(), 0.5));
+    }
+}
@@ -0,0 +1,53 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SearchCursorTest {
+
+    private static String token(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertRejected(String token) {
+        try {
+            SearchCursor.decode(token);
+            fail("accepted " + token);
+        } catch (IllegalArgumentException e) {
+            assertEquals("malformed page token", e.getMessage());
+        }
+    }
+
+    @Test
+    public void tokensRoundTrip() {
+        SearchCursor cursor = SearchCursor.decode(new SearchCursor(Math.PI / 7, 42).encode());
+        assertEquals(42, cursor.getId());
+        assertEquals("the score is kept to the bit", Double.doubleToLongBits(Math.PI / 7),
+                Double.doubleToLongBits(cursor.getScore()));
+        assertEquals(0, SearchCursor.RANKING.compare(cursor, new SearchCursor(Math.PI / 7, 42)));
+    }
+
+    @Test
+    public void malformedTokensAreRejected() {
+        assertRejected("not base64!");
+        assertRejected(token("1:42"));
+        assertRejected(token("1:42:3ff0000000000000:0"));
+        assertRejected(token("2:42:3ff0000000000000"));
+        assertRejected(token("1:forty-two:3ff0000000000000"));
+        assertRejected(token("1:42:not-hex"));
+        assertRejected(token("1:42:"));
+    }
+
+    @Test
+    public void impossibleScoresAreRejected() {
+        assertRejected(new SearchCursor(0, 42).encode());
+        assertRejected(new SearchCursor(-1, 42).encode());
+        assertRejected(new SearchCursor(Double.NaN, 42).encode());
+        assertRejected(new SearchCursor(Double.POSITIVE_INFINITY, 42).encode());
+    }
+}
@@ -0,0 +1,105 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchIndexTest {
+
+    // The title, description and location of events 1 to 4.
+    private static final String[][] TEXTS = {
+            {"Chess club", "Bring a board", "Library"},
+            {"Board games night", "Chess and more", "Commons"},
+            {"Soccer", null, "Chess field"},
+            {"Chess tournament", "Chess, chess and chess", null},
+    };
+
+    private static Event event(int id, String title) {
+        return new Event(id, 1, title, null, null, null, 0f, 0, 0, null, 0);
+    }
+
+    private static List<Integer> ids(List<SearchCursor> hits) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (SearchCursor hit : hits) {
+            result.add(hit.getId());
+        }
+        return result;
+    }
+
+    /*
+     * This function returns a connection that holds the events of TEXTS, and runs the given
+     * action while a slice is read.
+     */
+    private static FakeConnection events(final Runnable duringLoad) {
+        return new FakeConnection((sql, parameters) -> {
+            if (sql.equals(Query.SELECT_EVENT_ID_RANGE.getSql())) {
+                return new FakeConnection.Rows("Min", "Max").add(1, TEXTS.length);
+            }
+            if (sql.equals(Query.SELECT_EVENT_TEXT.getSql())) {
+                if (duringLoad != null) {
+                    duringLoad.run();
+                }
+                FakeConnection.Rows rows = new FakeConnection.Rows("ID", "Title", "Description", "Location");
+                for (int id = (Integer) parameters.get(1); id <= (Integer) parameters.get(2); id++) {
+                    rows.add(id, TEXTS[id - 1][0], TEXTS[id - 1][1], TEXTS[id - 1][2]);
+                }
+                return rows;
+            }
+            throw new SQLException("unexpected query: " + sql);
+        });
+    }
+
+    @Test
+    public void nothingIsFoundBeforeTheBuild() {
+        assertTrue(new SearchIndex(2, 60000).search("chess", null, 10).isEmpty());
+    }
+
+    @Test
+    public void matchesAreRankedAndPaged() throws Exception {
+        SearchIndex index = new SearchIndex(2, 60000);
+        index.refresh(FakeConnection.poolOf(events(null)));
+
+        // Four mentions, one in the title, beat a title alone, which beats a location and a description.
+        List<SearchCursor> first = index.search("Chess", null, 2);
+        assertEquals(Arrays.asList(4, 1), ids(first));
+        assertEquals(Arrays.asList(3, 2), ids(index.search("chess", first.get(1), 10)));
+        assertEquals("every word must match", Arrays.asList(2, 1), ids(index.search("chess board", null, 10)));
+        assertTrue(index.search("chess checkers", null, 10).isEmpty());
+    }
+
+    @Test
+    public void writesDuringABuildAreApplied() throws Exception {
+        final SearchIndex index = new SearchIndex(1, 60000);
+        index.refresh(FakeConnection.poolOf(events(() -> {
+            index.eventChanged(event(3, "Soccer"));
+            index.eventChanged(event(5, "Chess lessons"));
+            index.eventRemoved(4);
+        })));
+
+        assertEquals(Arrays.asList(1, 5, 2), ids(index.search("chess", null, 10)));
+    }
+
+    @Test
+    public void aFailedBuildIsNotInstalled() throws Exception {
+        SearchIndex index = new SearchIndex(2, 60000);
+        FakeConnection connection = new FakeConnection((sql, parameters) -> {
+            if (sql.equals(Query.SELECT_EVENT_ID_RANGE.getSql())) {
+                return new FakeConnection.Rows("Min", "Max").add(1, 4);
+            }
+            throw new SQLException("connection reset");
+        });
+        try {
+            index.refresh(FakeConnection.poolOf(connection));
+            fail("the build should have failed");
+        } catch (SQLException e) {
+            assertTrue(index.search("chess", null, 10).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package edu.calvin.cs262.cs262d;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class UpcomingEventsTest {
+
+    private static final long HOUR = 3600 * 1000;
+
+    private static Event event(int id, Timestamp time, int count) {
+        return new Event(id, 1, "Event " + id, null, time, null, 0f, 0, 0, null, count);
+    }
+
+    private static List<Integer> counts(List<Event> events) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (Event event : events) {
+            result.add(event.getCount());
+        }
+        return result;
+    }
+
+    @Test
+    public void writesDuringALoadAreApplied() {
+        UpcomingEvents upcoming = new UpcomingEvents(100, 24 * HOUR, 60000);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp later = new Timestamp(now.getTime() + HOUR);
+
+        assertTrue(upcoming.startLoad());
+        assertFalse("only one load at a time", upcoming.startLoad());
+        // Joins commit while the load is reading the database.
+        upcoming.eventChanged(event(1, later, 5));
+        upcoming.eventRemoved(2);
+        upcoming.putLoaded(Arrays.asList(event(1, later, 4), event(2, later, 0)), now);
+
+        List<Event> window = upcoming.window(new EventCursor(now, Integer.MIN_VALUE),
+                new Timestamp(now.getTime() + 24 * HOUR), 10);
+        assertNotNull("the load is installed", window);
+        assertEquals(Arrays.asList(5), counts(window));
+    }
+
+    @Test
+    public void writesMoveEventsInAndOutOfTheWindow() {
+        UpcomingEvents upcoming = new UpcomingEvents(100, 24 * HOUR, 60000);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        assertTrue(upcoming.startLoad());
+        upcoming.putLoaded(Arrays.asList(event(1, new Timestamp(now.getTime() + HOUR), 0)), now);
+
+        upcoming.eventChanged(event(1, new Timestamp(now.getTime() + 48 * HOUR), 0));
+        upcoming.eventChanged(event(2, new Timestamp(now.getTime() + 2 * HOUR), 3));
+
+        List<Event> window = upcoming.window(new EventCursor(now, Integer.MIN_VALUE),
+                new Timestamp(now.getTime() + 24 * HOUR), 10);
+        assertEquals(1, window.size());
+        assertEquals(2, window.get(0).getId());
+    }
+}